@@ -0,0 +1,63 @@
+package benchmark;
+
+import model.Template;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+
+/**
+ * Generated directory of empty files laid out for a template.
+ * Olympus directories are named 100OLYMP and hold .jpg files only, generic ones
+ * mix a few extensions so that extension matching has some work to do.
+ */
+final class BenchmarkDirectory {
+    private static final List<String> GENERIC_EXTENSIONS = List.of(".jpg", ".png", ".txt", ".mov");
+
+    private BenchmarkDirectory() {
+    }
+
+    /**
+     * @param storage "local" (-Dbench.local.dir, default target/bench-data)
+     *                or "tmpfs" (-Dbench.tmpfs.dir, default /dev/shm)
+     */
+    static Path create(String storage, Template template, int files) throws IOException {
+        var base = switch (storage) {
+            case "local" -> Path.of(System.getProperty("bench.local.dir", "target/bench-data"));
+            case "tmpfs" -> Path.of(System.getProperty("bench.tmpfs.dir", "/dev/shm"));
+            default -> throw new IllegalArgumentException("Unknown storage %s".formatted(storage));
+        };
+        var root = Files.createTempDirectory(Files.createDirectories(base), "bulk-rename-");
+        var dir = Files.createDirectory(root.resolve(template.folderPattern() != null ? "100OLYMP" : "generic"));
+        for (int i = 0; i < files; i++) {
+            var extension = template.folderPattern() != null
+                ? ".jpg"
+                : GENERIC_EXTENSIONS.get(i % GENERIC_EXTENSIONS.size());
+            Files.createFile(dir.resolve("IMG_%07d%s".formatted(i, extension)));
+        }
+        return dir;
+    }
+
+    static void delete(Path dir) throws IOException {
+        Files.walkFileTree(dir.getParent(), new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,137 @@
+package benchmark;
+
+import model.DirectorySnapshot;
+import model.ExtensionMatcher;
+import model.Template;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import utility.RenamerUtility;
+import utility.TemplateRegistry;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the scan/sort/plan/rename pipeline of {@link RenamerUtility}.
+ * <p>
+ * Run with machine-readable results:
+ * <pre>
+ * java -jar target/benchmarks.jar -rf json -rff results.json
+ * java -jar target/benchmarks.jar -p files=1000,10000 -p storage=tmpfs -rf csv -rff results.csv
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RenamerUtilityBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int files;
+
+    @Param({"local", "tmpfs"})
+    public String storage;
+
+    @Param({"generic", "olympus_c180"})
+    public String templateName;
+
+    private Template template;
+    private Path dir;
+    private ExtensionMatcher extensions;
+    private List<Path> listed;
+    private List<Path> sorted;
+    private DirectorySnapshot snapshot;
+    private Map<Path, Path> forward;
+    private Map<Path, Path> backward;
+    private boolean renamed;
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // mapSequence and renames print the preview, keep it out of the JMH output
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        template = TemplateRegistry.INSTANCE.get(templateName);
+        dir = BenchmarkDirectory.create(storage, template, files);
+        extensions = template.folderPattern() == null
+            ? ExtensionMatcher.of(List.of(".jpg", ".png"))
+            : template.extensions();
+        listed = RenamerUtility.INSTANCE.listByExtension(dir, extensions);
+        sorted = RenamerUtility.INSTANCE.sortFilesByCreationTime(listed);
+        snapshot = RenamerUtility.INSTANCE.scan(dir, extensions);
+        forward = RenamerUtility.INSTANCE.mapSequence(sorted, template.seqStart(), this::newName);
+        backward = new LinkedHashMap<>();
+        forward.forEach((oldPath, newPath) -> backward.put(newPath, oldPath));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(stdout);
+        BenchmarkDirectory.delete(dir);
+    }
+
+    @Benchmark
+    public List<Path> listByExtension() throws IOException {
+        return RenamerUtility.INSTANCE.listByExtension(dir, extensions);
+    }
+
+    @Benchmark
+    public DirectorySnapshot scan() throws IOException {
+        return RenamerUtility.INSTANCE.scan(dir, extensions);
+    }
+
+    @Benchmark
+    public List<Path> sortFilesByCreationTime() {
+        return RenamerUtility.INSTANCE.sortFilesByCreationTime(listed);
+    }
+
+    @Benchmark
+    public Map<Path, Path> mapSequence() {
+        return RenamerUtility.INSTANCE.mapSequence(sorted, template.seqStart(), this::newName);
+    }
+
+    @Benchmark
+    public Map<Path, Path> checkConflicts() {
+        RenamerUtility.INSTANCE.checkConflicts(forward, snapshot);
+        return forward;
+    }
+
+    /**
+     * Every invocation renames the whole directory, alternating between the generated
+     * names and the sequence names so the directory is always in a known state.
+     */
+    @Benchmark
+    public boolean renames() {
+        RenamerUtility.INSTANCE.renames(renamed ? backward : forward, false);
+        renamed = !renamed;
+        return renamed;
+    }
+
+    private String newName(int seqNum, Path file) {
+        var fileName = file.getFileName().toString();
+        var extension = fileName.substring(fileName.lastIndexOf('.'));
+        return template.folderPattern() != null
+            ? "P100%04d.JPG".formatted(seqNum)
+            : "elmt_%07d%s".formatted(seqNum, extension);
+    }
+}
@@ -0,0 +1,90 @@
+package loadtest;
+
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.ArrayList;
+import java.util.Set;
+
+/**
+ * File system of a {@link FaultInjectingFileSystemProvider}, wrapping the real one.
+ */
+final class FaultInjectingFileSystem extends FileSystem {
+    private final FaultInjectingFileSystemProvider provider;
+    private final FileSystem delegate;
+
+    FaultInjectingFileSystem(FaultInjectingFileSystemProvider provider, FileSystem delegate) {
+        this.provider = provider;
+        this.delegate = delegate;
+    }
+
+    Path wrap(Path path) {
+        return path != null ? new FaultInjectingPath(this, path) : null;
+    }
+
+    @Override
+    public FaultInjectingFileSystemProvider provider() {
+        return provider;
+    }
+
+    @Override
+    public void close() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return delegate.isOpen();
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return delegate.isReadOnly();
+    }
+
+    @Override
+    public String getSeparator() {
+        return delegate.getSeparator();
+    }
+
+    @Override
+    public Iterable<Path> getRootDirectories() {
+        var roots = new ArrayList<Path>();
+        delegate.getRootDirectories().forEach(root -> roots.add(wrap(root)));
+        return roots;
+    }
+
+    @Override
+    public Iterable<FileStore> getFileStores() {
+        return delegate.getFileStores();
+    }
+
+    @Override
+    public Set<String> supportedFileAttributeViews() {
+        return delegate.supportedFileAttributeViews();
+    }
+
+    @Override
+    public Path getPath(String first, String... more) {
+        return wrap(delegate.getPath(first, more));
+    }
+
+    @Override
+    public PathMatcher getPathMatcher(String syntaxAndPattern) {
+        var matcher = delegate.getPathMatcher(syntaxAndPattern);
+        return path -> path instanceof FaultInjectingPath faultInjectingPath && matcher.matches(faultInjectingPath.delegate());
+    }
+
+    @Override
+    public UserPrincipalLookupService getUserPrincipalLookupService() {
+        return delegate.getUserPrincipalLookupService();
+    }
+
+    @Override
+    public WatchService newWatchService() {
+        throw new UnsupportedOperationException("Watching is not supported by the fault injecting file system");
+    }
+}
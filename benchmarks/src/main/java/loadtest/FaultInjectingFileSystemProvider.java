@@ -0,0 +1,201 @@
+package loadtest;
+
+import loadtest.FaultPlan.Operation;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * File system provider wrapping a real file system (usually the default one) and injecting
+ * the faults of a {@link FaultPlan} before every operation: NAS-like latencies, a throughput
+ * cap, a failing Nth move or attribute read. Paths obtained with {@link #wrap(Path)} route every
+ * {@link java.nio.file.Files} call made on them through this provider, so the renamers can run
+ * against it unchanged.
+ */
+public final class FaultInjectingFileSystemProvider extends FileSystemProvider {
+    public static final String SCHEME = "faulty";
+
+    private final FileSystemProvider delegate;
+    private final FaultPlan faults;
+    private final FaultInjectingFileSystem fileSystem;
+
+    public FaultInjectingFileSystemProvider(FileSystem wrapped, FaultPlan faults) {
+        this.delegate = wrapped.provider();
+        this.faults = faults;
+        this.fileSystem = new FaultInjectingFileSystem(this, wrapped);
+    }
+
+    /**
+     * @param path a path of the wrapped file system
+     * @return the same path, on the fault injecting file system
+     */
+    public Path wrap(Path path) {
+        return fileSystem.wrap(path);
+    }
+
+    private static Path unwrap(Path path) {
+        if (!(path instanceof FaultInjectingPath faultInjectingPath)) {
+            throw new ProviderMismatchException();
+        }
+        return faultInjectingPath.delegate();
+    }
+
+    @Override
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    @Override
+    public FileSystem newFileSystem(URI uri, Map<String, ?> env) {
+        throw new UnsupportedOperationException("Create the provider with its constructor");
+    }
+
+    @Override
+    public FileSystem getFileSystem(URI uri) {
+        return fileSystem;
+    }
+
+    @Override
+    public Path getPath(URI uri) {
+        throw new UnsupportedOperationException("Obtain the paths with wrap(Path)");
+    }
+
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs)
+            throws IOException {
+        faults.before(Operation.OPEN, path);
+        return delegate.newByteChannel(unwrap(path), options, attrs);
+    }
+
+    @Override
+    public FileChannel newFileChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs)
+            throws IOException {
+        faults.before(Operation.OPEN, path);
+        return delegate.newFileChannel(unwrap(path), options, attrs);
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter)
+            throws IOException {
+        faults.before(Operation.LIST, dir);
+        var stream = delegate.newDirectoryStream(unwrap(dir), entry -> filter.accept(wrap(entry)));
+        return new DirectoryStream<>() {
+            @Override
+            public Iterator<Path> iterator() {
+                var entries = stream.iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public Path next() {
+                        return wrap(entries.next());
+                    }
+                };
+            }
+
+            @Override
+            public void close() throws IOException {
+                stream.close();
+            }
+        };
+    }
+
+    @Override
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) throws IOException {
+        faults.before(Operation.OTHER, dir);
+        delegate.createDirectory(unwrap(dir), attrs);
+    }
+
+    @Override
+    public void createLink(Path link, Path existing) throws IOException {
+        faults.before(Operation.OTHER, link);
+        delegate.createLink(unwrap(link), unwrap(existing));
+    }
+
+    @Override
+    public void delete(Path path) throws IOException {
+        faults.before(Operation.DELETE, path);
+        delegate.delete(unwrap(path));
+    }
+
+    @Override
+    public void copy(Path source, Path target, CopyOption... options) throws IOException {
+        faults.before(Operation.OTHER, source);
+        delegate.copy(unwrap(source), unwrap(target), options);
+    }
+
+    @Override
+    public void move(Path source, Path target, CopyOption... options) throws IOException {
+        faults.before(Operation.MOVE, source);
+        delegate.move(unwrap(source), unwrap(target), options);
+    }
+
+    @Override
+    public boolean isSameFile(Path path, Path path2) throws IOException {
+        faults.before(Operation.READ_ATTRIBUTES, path);
+        return delegate.isSameFile(unwrap(path), unwrap(path2));
+    }
+
+    @Override
+    public boolean isHidden(Path path) throws IOException {
+        faults.before(Operation.READ_ATTRIBUTES, path);
+        return delegate.isHidden(unwrap(path));
+    }
+
+    @Override
+    public FileStore getFileStore(Path path) throws IOException {
+        faults.before(Operation.OTHER, path);
+        return delegate.getFileStore(unwrap(path));
+    }
+
+    @Override
+    public void checkAccess(Path path, AccessMode... modes) throws IOException {
+        faults.before(Operation.READ_ATTRIBUTES, path);
+        delegate.checkAccess(unwrap(path), modes);
+    }
+
+    @Override
+    public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+        return delegate.getFileAttributeView(unwrap(path), type, options);
+    }
+
+    @Override
+    public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options)
+            throws IOException {
+        faults.before(Operation.READ_ATTRIBUTES, path);
+        return delegate.readAttributes(unwrap(path), type, options);
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) throws IOException {
+        faults.before(Operation.READ_ATTRIBUTES, path);
+        return delegate.readAttributes(unwrap(path), attributes, options);
+    }
+
+    @Override
+    public void setAttribute(Path path, String attribute, Object value, LinkOption... options) throws IOException {
+        faults.before(Operation.OTHER, path);
+        delegate.setAttribute(unwrap(path), attribute, value, options);
+    }
+}
@@ -0,0 +1,125 @@
+package loadtest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Faults injected by {@link FaultInjectingFileSystemProvider}: a delay per operation,
+ * a cap on the operations per second of the whole file system and the failure of the
+ * Nth call of an operation.
+ */
+public final class FaultPlan {
+    public enum Operation {
+        MOVE,
+        READ_ATTRIBUTES,
+        LIST,
+        OPEN,
+        DELETE,
+        OTHER
+    }
+
+    private final Map<Operation, Long> delayNanos;
+    private final Map<Operation, Long> failAt;
+    private final long intervalNanos; // 0 = no throughput cap
+    private final Map<Operation, AtomicLong> counts = new EnumMap<>(Operation.class);
+    private final AtomicLong nextSlot = new AtomicLong();
+    private volatile boolean enabled = true;
+
+    private FaultPlan(Map<Operation, Long> delayNanos, Map<Operation, Long> failAt, long intervalNanos) {
+        this.delayNanos = delayNanos;
+        this.failAt = failAt;
+        this.intervalNanos = intervalNanos;
+        for (var operation : Operation.values()) {
+            counts.put(operation, new AtomicLong());
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Called before every operation reaches the real file system: waits for the throughput
+     * cap and the delay, then fails if this is the chosen call.
+     *
+     * @throws IOException the injected failure
+     */
+    void before(Operation operation, Path path) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        long call = counts.get(operation).incrementAndGet();
+        if (intervalNanos > 0) {
+            long now = System.nanoTime();
+            long slot = nextSlot.getAndAccumulate(now, (previous, time) -> Math.max(previous, time) + intervalNanos);
+            park(Math.max(slot, now) - now);
+        }
+        park(delayNanos.getOrDefault(operation, 0L));
+        if (failAt.getOrDefault(operation, 0L) == call) {
+            throw new IOException("Injected failure of %s #%d on %s".formatted(operation, call, path));
+        }
+    }
+
+    /**
+     * Turns the faults off, ex. to recover after an injected failure. Calls are no longer counted.
+     */
+    public void disable() {
+        enabled = false;
+    }
+
+    /**
+     * @return the number of calls of every operation seen while enabled
+     */
+    public Map<Operation, Long> counts() {
+        var snapshot = new EnumMap<Operation, Long>(Operation.class);
+        counts.forEach((operation, count) -> snapshot.put(operation, count.get()));
+        return snapshot;
+    }
+
+    private static void park(long nanos) throws InterruptedIOException {
+        long deadline = System.nanoTime() + nanos;
+        for (long left = nanos; left > 0; left = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(left);
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException("Interrupted during an injected delay");
+            }
+        }
+    }
+
+    public static final class Builder {
+        private final Map<Operation, Long> delayNanos = new EnumMap<>(Operation.class);
+        private final Map<Operation, Long> failAt = new EnumMap<>(Operation.class);
+        private long intervalNanos = 0;
+
+        public Builder delay(Operation operation, Duration delay) {
+            delayNanos.put(operation, delay.toNanos());
+            return this;
+        }
+
+        /**
+         * @param operationsPerSecond maximum operations per second over all the operations, 0 for no cap
+         */
+        public Builder throughput(long operationsPerSecond) {
+            this.intervalNanos = operationsPerSecond > 0 ? 1_000_000_000L / operationsPerSecond : 0;
+            return this;
+        }
+
+        /**
+         * @param call the 1-based call of the operation that fails, 0 for none
+         */
+        public Builder failAt(Operation operation, long call) {
+            failAt.put(operation, call);
+            return this;
+        }
+
+        public FaultPlan build() {
+            return new FaultPlan(new EnumMap<>(delayNanos), new EnumMap<>(failAt), intervalNanos);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package loadtest;
+
+import factory.RenamerFactory;
+import factory.StreamingRenamer;
+import loadtest.FaultPlan.Operation;
+import model.CliArgs;
+import model.OrderBy;
+import model.PreviewMode;
+import utility.RenameJournal;
+import utility.RenameLog;
+import utility.RenamerUtility;
+import utility.RunStats;
+import utility.TemplateRegistry;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.regex.Pattern;
+
+/**
+ * Load test of a template renamer on a synthetic folder, through a {@link FaultInjectingFileSystemProvider}.
+ * <p>
+ * Every file holds its original name, so after the run (and after the recovery, when a failure
+ * was injected) the folder is checked for consistency: nothing lost or duplicated, and either
+ * every file in sequence or, after a rollback, every file back to its original name.
+ * Lives in the benchmarks module, so that the fault injecting file system never ships with the application:
+ * <pre>
+ * java -cp target/benchmarks.jar loadtest.LoadTest --files 100000 --template olympus_c180 \
+ *     --delay-us move=2000,read_attributes=500 --ops-per-second 20000 --fail-move 50000 --io-parallelism 16
+ * </pre>
+ */
+public final class LoadTest {
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int files = 100_000;
+        String template = "generic";
+        int ioParallelism = 1;
+        var orderBy = OrderBy.CREATION;
+        boolean rollback = false;
+        boolean undo = false;
+        boolean keep = false;
+        var faults = FaultPlan.builder();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--files" -> files = Integer.parseInt(args[++i]);
+                case "--template" -> template = args[++i];
+                case "--io-parallelism" -> ioParallelism = Integer.parseInt(args[++i]);
+                case "--order-by" -> orderBy = OrderBy.parse(args[++i]);
+                case "--ops-per-second" -> faults.throughput(Long.parseLong(args[++i]));
+                case "--fail-move" -> faults.failAt(Operation.MOVE, Long.parseLong(args[++i]));
+                case "--fail-attributes" -> faults.failAt(Operation.READ_ATTRIBUTES, Long.parseLong(args[++i]));
+                case "--delay-us" -> {
+                    for (var delay : args[++i].split(",")) {
+                        var parts = delay.split("=");
+                        faults.delay(Operation.valueOf(parts[0].toUpperCase()), Duration.ofNanos(Long.parseLong(parts[1]) * 1000));
+                    }
+                }
+                case "--rollback" -> rollback = true;
+                case "--undo" -> undo = true;
+                case "--keep" -> keep = true;
+                default -> throw new IllegalArgumentException("""
+                    Unknown option %s, options: --files <n> --template <name> --io-parallelism <n> --order-by <order>
+                      --delay-us <operation>=<us>,... --ops-per-second <n> --fail-move <n> --fail-attributes <n>
+                      --rollback (recover an injected failure by rolling back) --undo (undo the run from its log)
+                      --keep (keep the folder)
+                      operations: %s""".formatted(args[i], Arrays.toString(Operation.values())));
+            }
+        }
+
+        var root = Files.createTempDirectory("bulk-rename-load-");
+        boolean consistent;
+        try {
+            consistent = run(root, files, template, ioParallelism, orderBy, faults.build(), rollback, undo);
+        } finally {
+            if (keep) {
+                System.out.printf("Folder kept: %s%n", root);
+            } else {
+                delete(root);
+            }
+        }
+        System.exit(consistent ? 0 : 1);
+    }
+
+    private static boolean run(Path root, int files, String template, int ioParallelism, OrderBy orderBy,
+                               FaultPlan faults, boolean rollback, boolean undo) throws Exception {
+        var definition = TemplateRegistry.INSTANCE.get(template);
+        var dir = Files.createDirectory(root.resolve(definition.folderPattern() != null ? "100OLYMP" : "generic"));
+        long start = System.nanoTime();
+        for (int i = 0; i < files; i++) {
+            var name = "IMG_%07d.jpg".formatted(i);
+            Files.writeString(dir.resolve(name), name, StandardCharsets.UTF_8);
+        }
+        System.out.printf("%d file created in %s (%d ms)%n", files, dir, elapsedMillis(start));
+
+        var provider = new FaultInjectingFileSystemProvider(FileSystems.getDefault(), faults);
+        var args = CliArgs.builder()
+            .dir(provider.wrap(dir))
+            .template(template)
+            .prefix("LOAD_")
+            .ioParallelism(ioParallelism)
+            .orderBy(orderBy)
+            .preview(PreviewMode.parse("summary"))
+            .assumeYes(true)
+            .build();
+        var renamerFactory = RenamerFactory.fromServiceLoader();
+        var renamer = renamerFactory.get(template);
+
+        RunStats.INSTANCE.reset();
+        Exception failure = null;
+        start = System.nanoTime();
+        try {
+            if (orderBy == OrderBy.DIRECTORY) {
+                new StreamingRenamer(renamerFactory).rename(args);
+            } else {
+                renamer.rename(args);
+            }
+        } catch (Exception e) {
+            failure = e;
+        }
+        long millis = elapsedMillis(start);
+        System.out.printf("%nRun %s in %d ms, %.1f file/s, operations %s%n",
+            failure == null ? "completed" : "failed (" + failure.getMessage() + ")",
+            millis, files * 1000.0 / Math.max(1, millis), faults.counts());
+
+        faults.disable();
+        var journal = failure != null ? RenameJournal.read(dir) : null;
+        if (journal != null) {
+            System.out.printf("Recovering the interrupted run (%s)%n", rollback ? "rollback" : "complete");
+            RenamerUtility.INSTANCE.recover(args.dir(), rollback);
+        }
+        // a streamed run interrupted before its plan was complete can only be rolled back
+        boolean renamed = failure == null || journal != null && !rollback && journal.planned();
+        boolean consistent = check(dir, files, renamed ? renamer.naming(args, files).sequencedName().pattern() : null);
+        if (undo && renamed && consistent) {
+            start = System.nanoTime();
+            RenamerUtility.INSTANCE.undo(CliArgs.builder()
+                .dir(dir)
+                .undo(RenameLog.fileIn(dir))
+                .ioParallelism(ioParallelism)
+                .preview(PreviewMode.parse("summary"))
+                .build());
+            System.out.printf("%nUndo in %d ms%n", elapsedMillis(start));
+            consistent = check(dir, files, null);
+        }
+        return consistent;
+    }
+
+    /**
+     * @param sequencedName regex of the new names, null when the files must have their original name
+     */
+    private static boolean check(Path dir, int files, String sequencedName) throws IOException {
+        var pattern = sequencedName != null ? Pattern.compile(sequencedName, Pattern.CASE_INSENSITIVE) : null;
+        var originals = new HashSet<String>(files * 2);
+        var sequences = new BitSet(files + 1);
+        var problems = new StringBuilder();
+        try (var stream = Files.newDirectoryStream(dir)) {
+            for (var file : stream) {
+                var name = file.getFileName().toString();
+                if (RenameLog.isLogFile(name)) {
+                    continue;
+                }
+                var original = Files.readString(file, StandardCharsets.UTF_8);
+                if (!originals.add(original)) {
+                    problems.append("\n  duplicate content ").append(original).append(" in ").append(name);
+                }
+                if (pattern == null && !name.equals(original)) {
+                    problems.append("\n  ").append(original).append(" not restored, found as ").append(name);
+                } else if (pattern != null) {
+                    var m = pattern.matcher(name);
+                    if (!m.matches()) {
+                        problems.append("\n  ").append(name).append(" not renamed");
+                    } else {
+                        sequences.set(Integer.parseInt(m.group(1)));
+                    }
+                }
+            }
+        }
+        if (originals.size() != files) {
+            problems.append("\n  expected %d file, found %d".formatted(files, originals.size()));
+        }
+        if (pattern != null && sequences.cardinality() != files) {
+            problems.append("\n  expected %d distinct sequence numbers, found %d".formatted(files, sequences.cardinality()));
+        }
+        System.out.println(problems.isEmpty()
+            ? "Consistent: %d file, %s".formatted(files, pattern != null ? "all renamed" : "all with their original name")
+            : "INCONSISTENT:" + problems);
+        return problems.isEmpty();
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    private static void delete(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
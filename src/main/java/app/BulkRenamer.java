@@ -1,7 +1,11 @@
 package app;
 
 import cli.ArgsParser;
+import factory.BoundedMemoryRenamer;
+import factory.RecursiveRenamer;
 import factory.RenamerFactory;
+import factory.StreamingRenamer;
+import factory.WatchRenamer;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -11,11 +15,20 @@ public class BulkRenamer implements CommandLineRunner {
 
     private final ArgsParser argsParser;
     private final RenamerFactory renamerFactory;
+    private final RecursiveRenamer recursiveRenamer;
+    private final WatchRenamer watchRenamer;
+    private final BoundedMemoryRenamer boundedMemoryRenamer;
+    private final StreamingRenamer streamingRenamer;
 
     public BulkRenamer(
-            ArgsParser argsParser, RenamerFactory renamerFactory) {
+            ArgsParser argsParser, RenamerFactory renamerFactory, RecursiveRenamer recursiveRenamer,
+            WatchRenamer watchRenamer, BoundedMemoryRenamer boundedMemoryRenamer, StreamingRenamer streamingRenamer) {
         this.argsParser = argsParser;
         this.renamerFactory = renamerFactory;
+        this.recursiveRenamer = recursiveRenamer;
+        this.watchRenamer = watchRenamer;
+        this.boundedMemoryRenamer = boundedMemoryRenamer;
+        this.streamingRenamer = streamingRenamer;
     }
 
     public static void main(String[] args) {
@@ -24,12 +37,10 @@ public class BulkRenamer implements CommandLineRunner {
 
     @Override
     public void run(String... args) throws Exception {
-        var cliArgs = argsParser.parse(args);
-        if (cliArgs == null) return;
-
-        var count = renamerFactory
-                .get(cliArgs.template())
-                .rename(cliArgs);
-        System.out.printf("\nRinominati %d file.", count);
+        int code = new RenameCommand(argsParser, renamerFactory, recursiveRenamer, watchRenamer, boundedMemoryRenamer,
+            streamingRenamer).run(args);
+        if (code != 0) {
+            System.exit(code);
+        }
     }
 }
@@ -0,0 +1,18 @@
+package app;
+
+/**
+ * Entry point without Spring: no application context and no component scan, the
+ * renamers are found through {@link java.util.ServiceLoader}. Main class of the plain
+ * jar and of the native image.
+ */
+public final class FastBulkRenamer {
+    private FastBulkRenamer() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int code = RenameCommand.withoutSpring().run(args);
+        if (code != 0) {
+            System.exit(code);
+        }
+    }
+}
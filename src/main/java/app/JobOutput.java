@@ -0,0 +1,64 @@
+package app;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+
+/**
+ * Routes System.out and System.err to the client of the job running on the current thread
+ * (and on the threads it starts), so that the renamers keep printing as usual while jobs
+ * run concurrently in the server. Threads without a job print to the original streams.
+ */
+final class JobOutput {
+    private static final InheritableThreadLocal<OutputStream> OUT = new InheritableThreadLocal<>();
+    private static final InheritableThreadLocal<OutputStream> ERR = new InheritableThreadLocal<>();
+
+    private JobOutput() {
+    }
+
+    static void install() {
+        System.setOut(new PrintStream(new Routing(OUT, System.out), true, Charset.defaultCharset()));
+        System.setErr(new PrintStream(new Routing(ERR, System.err), true, Charset.defaultCharset()));
+    }
+
+    static void bind(OutputStream out, OutputStream err) {
+        OUT.set(out);
+        ERR.set(err);
+    }
+
+    static void unbind() {
+        OUT.remove();
+        ERR.remove();
+    }
+
+    private static final class Routing extends OutputStream {
+        private final InheritableThreadLocal<OutputStream> route;
+        private final OutputStream fallback;
+
+        private Routing(InheritableThreadLocal<OutputStream> route, OutputStream fallback) {
+            this.route = route;
+            this.fallback = fallback;
+        }
+
+        private OutputStream target() {
+            var target = route.get();
+            return target != null ? target : fallback;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target().flush();
+        }
+    }
+}
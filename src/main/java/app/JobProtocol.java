@@ -0,0 +1,82 @@
+package app;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wire format between {@link RenameClient} and {@link RenameServer}.
+ * The client sends the job arguments (count, then every argument as modified UTF-8),
+ * the server answers with frames: type byte, then a length and the bytes for output
+ * frames, or the exit code for the last frame.
+ */
+final class JobProtocol {
+    static final byte OUT = 'O';
+    static final byte ERR = 'E';
+    static final byte EXIT = 'X';
+
+    private JobProtocol() {
+    }
+
+    static void writeRequest(DataOutputStream out, List<String> args) throws IOException {
+        out.writeInt(args.size());
+        for (var arg : args) {
+            out.writeUTF(arg);
+        }
+        out.flush();
+    }
+
+    static List<String> readRequest(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > 1024) {
+            throw new IOException("Invalid job request");
+        }
+        var args = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            args.add(in.readUTF());
+        }
+        return args;
+    }
+
+    /**
+     * Output stream sending everything written as frames of the given type.
+     */
+    static final class FrameStream extends OutputStream {
+        private final DataOutputStream channel;
+        private final byte type;
+
+        FrameStream(DataOutputStream channel, byte type) {
+            this.channel = channel;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (channel) {
+                channel.writeByte(type);
+                channel.writeInt(len);
+                channel.write(b, off, len);
+                channel.flush();
+            }
+        }
+
+        static void exit(DataOutputStream channel, int code) throws IOException {
+            synchronized (channel) {
+                channel.writeByte(EXIT);
+                channel.writeInt(code);
+                channel.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package app;
+
+import model.ServiceArgs;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Thin client of {@link RenameServer}: sends the command line as a job and prints its
+ * output as it arrives. Paths are made absolute first, the server has its own working directory.
+ */
+public final class RenameClient {
+    private static final Set<String> PATH_OPTIONS = Set.of("--dir", "--stats", "--cache-dir", "--target", "--undo");
+    private static final String PREVIEW_FILE = "file:";
+
+    private RenameClient() {
+    }
+
+    /**
+     * @return the exit code of the job
+     */
+    public static int run(ServiceArgs serviceArgs) throws IOException {
+        var args = absolutePaths(serviceArgs.jobArgs());
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(serviceArgs.socket()));
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                "No server listening on %s, start one with --serve".formatted(serviceArgs.socket()), e);
+        }
+
+        try (channel) {
+            JobProtocol.writeRequest(new DataOutputStream(Channels.newOutputStream(channel)), args);
+            var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            var buffer = new byte[8192];
+            while (true) {
+                byte type = in.readByte();
+                if (type == JobProtocol.EXIT) {
+                    return in.readInt();
+                }
+                OutputStream target = type == JobProtocol.ERR ? System.err : System.out;
+                int remaining = in.readInt();
+                while (remaining > 0) {
+                    int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new IOException("Server closed the connection");
+                    }
+                    target.write(buffer, 0, read);
+                    remaining -= read;
+                }
+                target.flush();
+            }
+        }
+    }
+
+    private static List<String> absolutePaths(List<String> args) {
+        var absolute = new ArrayList<String>(args.size());
+        for (int i = 0; i < args.size(); i++) {
+            var arg = args.get(i);
+            absolute.add(arg);
+            if (i + 1 < args.size() && PATH_OPTIONS.contains(arg)) {
+                absolute.add(absolute(args.get(++i)));
+            } else if (i + 1 < args.size() && arg.equals("--preview") && args.get(i + 1).startsWith(PREVIEW_FILE)) {
+                absolute.add(PREVIEW_FILE + absolute(args.get(++i).substring(PREVIEW_FILE.length())));
+            }
+        }
+        return absolute;
+    }
+
+    private static String absolute(String path) {
+        return Path.of(path).toAbsolutePath().normalize().toString();
+    }
+}
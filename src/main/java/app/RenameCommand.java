@@ -0,0 +1,89 @@
+package app;
+
+import cli.ArgsParser;
+import factory.BoundedMemoryRenamer;
+import factory.RecursiveRenamer;
+import factory.RenamerFactory;
+import factory.StreamingRenamer;
+import factory.WatchRenamer;
+import model.CliArgs;
+import model.OrderBy;
+import utility.RenamerUtility;
+import utility.RunStats;
+
+/**
+ * Parses the command line and runs the matching renamer. Plain Java, shared by the
+ * Spring Boot application and by the Spring-free {@link FastBulkRenamer}.
+ */
+public record RenameCommand(
+        ArgsParser argsParser,
+        RenamerFactory renamerFactory,
+        RecursiveRenamer recursiveRenamer,
+        WatchRenamer watchRenamer,
+        BoundedMemoryRenamer boundedMemoryRenamer,
+        StreamingRenamer streamingRenamer
+) {
+    /**
+     * Wires the command by hand, with a renamer for every template of templates.properties.
+     */
+    public static RenameCommand withoutSpring() {
+        var renamerFactory = RenamerFactory.fromServiceLoader();
+        return new RenameCommand(
+            new ArgsParser(),
+            renamerFactory,
+            new RecursiveRenamer(renamerFactory),
+            new WatchRenamer(renamerFactory),
+            new BoundedMemoryRenamer(renamerFactory),
+            new StreamingRenamer(renamerFactory));
+    }
+
+    /**
+     * Runs a command line: a rename, or the server (--serve) and client (--client) of the rename service.
+     *
+     * @return the exit code
+     */
+    public int run(String... args) throws Exception {
+        var serviceArgs = argsParser.parseService(args);
+        if (serviceArgs != null && serviceArgs.client()) {
+            return RenameClient.run(serviceArgs);
+        }
+        if (serviceArgs != null) {
+            new RenameServer(this, serviceArgs).serve();
+            return 0;
+        }
+
+        var cliArgs = argsParser.parse(args);
+        if (cliArgs == null) return 0;
+
+        RunStats.INSTANCE.reset();
+        execute(cliArgs);
+        return 0;
+    }
+
+    /**
+     * Runs a parsed rename. Statistics are not reset: jobs of the server share them.
+     */
+    public void execute(CliArgs cliArgs) throws Exception {
+        try {
+            var count = cliArgs.undo() != null
+                    ? RenamerUtility.INSTANCE.undo(cliArgs)
+                    : cliArgs.watch()
+                    ? watchRenamer.watch(cliArgs)
+                    : cliArgs.boundedMemory()
+                    ? boundedMemoryRenamer.rename(cliArgs)
+                    : cliArgs.recursive()
+                    ? recursiveRenamer.rename(cliArgs)
+                    : cliArgs.orderBy() == OrderBy.DIRECTORY
+                    ? streamingRenamer.rename(cliArgs)
+                    : renamerFactory
+                        .get(cliArgs.template())
+                        .rename(cliArgs);
+            System.out.printf("\nRinominati %d file.", count);
+        } finally {
+            // also written for failed runs, they are the ones worth looking at
+            if (cliArgs.statsFile() != null) {
+                RunStats.INSTANCE.writeJson(cliArgs.statsFile(), cliArgs);
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package app;
+
+import model.ServiceArgs;
+import utility.TemplateRegistry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Resident rename service: keeps the renamers loaded and the JIT warm, and runs the jobs
+ * sent by {@link RenameClient} over a Unix domain socket. Every job is a usual command line,
+ * its output is streamed back to the client while it runs.
+ * <p>
+ * Jobs run concurrently, at most {@link ServiceArgs#maxJobs()} at a time and one at a time
+ * per directory (they would share the journal); jobs waiting for a slot are told so.
+ * Directories are compared by real path, and a recursive job holds the whole tree under its
+ * directory. --stats is refused: the counters of {@link utility.RunStats} are shared by the
+ * jobs running at the same time.
+ */
+public final class RenameServer {
+    private final RenameCommand command;
+    private final Path socket;
+    private final int maxJobs;
+    private final Semaphore jobs;
+    private final List<DirectoryLock> directories = new ArrayList<>(); // held by the running jobs
+
+    public RenameServer(RenameCommand command, ServiceArgs serviceArgs) {
+        this.command = command;
+        this.socket = serviceArgs.socket();
+        this.maxJobs = serviceArgs.maxJobs();
+        this.jobs = new Semaphore(maxJobs, true);
+    }
+
+    /**
+     * Accepts jobs until the process is stopped.
+     */
+    public void serve() throws IOException {
+        var address = UnixDomainSocketAddress.of(socket);
+        if (Files.exists(socket)) {
+            if (isListening(address)) {
+                throw new IllegalStateException("A server is already listening on %s".formatted(socket));
+            }
+            Files.delete(socket); // left by a server that was killed
+        }
+
+        try (var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            server.bind(address);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch (IOException e) {
+                    // nothing left to do
+                }
+            }));
+            JobOutput.install();
+            System.out.printf("Listening on %s, up to %d jobs at a time%n", socket, maxJobs);
+            while (!Thread.currentThread().isInterrupted()) {
+                var channel = server.accept();
+                executor.submit(() -> handle(channel));
+            }
+        } finally {
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    private void handle(SocketChannel channel) {
+        try (channel) {
+            var in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            var args = JobProtocol.readRequest(in);
+
+            int code;
+            JobOutput.bind(new JobProtocol.FrameStream(out, JobProtocol.OUT), new JobProtocol.FrameStream(out, JobProtocol.ERR));
+            try {
+                code = run(args);
+            } finally {
+                System.out.flush();
+                System.err.flush();
+                JobOutput.unbind();
+            }
+            JobProtocol.FrameStream.exit(out, code);
+        } catch (EOFException e) {
+            // connection closed before sending a job, e.g. by a server checking the socket
+        } catch (IOException e) {
+            System.err.printf("Job aborted, client disconnected: %s%n", e.getMessage());
+        }
+    }
+
+    private int run(List<String> args) {
+        try {
+            var cliArgs = command.argsParser().parse(args.toArray(String[]::new));
+            if (cliArgs == null) {
+                return 2;
+            }
+            if (cliArgs.template() != null && TemplateRegistry.INSTANCE.get(cliArgs.template()).confirm()
+                    && cliArgs.target() == null && !cliArgs.dryRun() && !cliArgs.assumeYes()) {
+                System.err.println("Jobs can't ask for confirmation, add --yes (or --dry-run)");
+                return 2;
+            }
+            if (cliArgs.statsFile() != null) {
+                System.err.println("--stats is not available for jobs, concurrent jobs share the counters: "
+                    + "run the command without --client");
+                return 2;
+            }
+
+            var directory = new DirectoryLock(cliArgs.dir().toRealPath(), cliArgs.recursive());
+            lock(directory);
+            try {
+                if (!jobs.tryAcquire()) {
+                    System.out.printf("Waiting for a free slot, %d jobs running%n", maxJobs);
+                    jobs.acquire();
+                }
+                try {
+                    command.execute(cliArgs);
+                    return 0;
+                } finally {
+                    jobs.release();
+                }
+            } finally {
+                unlock(directory);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Job interrupted");
+            return 1;
+        } catch (Exception e) {
+            System.err.printf("%s%n", e);
+            return 1;
+        }
+    }
+
+    /**
+     * Waits until no running job works on the directory of the lock, or on a directory
+     * overlapping it, then takes it.
+     */
+    private void lock(DirectoryLock directory) throws InterruptedException {
+        synchronized (directories) {
+            boolean told = false;
+            while (directories.stream().anyMatch(directory::overlaps)) {
+                if (!told) {
+                    System.out.printf("Waiting for the job running on %s%n", directory.dir());
+                    told = true;
+                }
+                directories.wait();
+            }
+            directories.add(directory);
+        }
+    }
+
+    private void unlock(DirectoryLock directory) {
+        synchronized (directories) {
+            directories.remove(directory);
+            directories.notifyAll();
+        }
+    }
+
+    private static boolean isListening(UnixDomainSocketAddress address) {
+        try (var channel = SocketChannel.open(address)) {
+            return channel.isConnected();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Directory of a job, by real path, with the tree under it for recursive jobs.
+     */
+    private record DirectoryLock(Path dir, boolean tree) {
+        boolean overlaps(DirectoryLock other) {
+            return dir.equals(other.dir)
+                || tree && other.dir.startsWith(dir)
+                || other.tree && dir.startsWith(other.dir);
+        }
+    }
+}
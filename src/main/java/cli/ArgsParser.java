@@ -1,16 +1,22 @@
 package cli;
 
 import model.CliArgs;
+import model.DedupeMode;
+import model.OrderBy;
+import model.PreviewMode;
+import model.ServiceArgs;
 import org.springframework.stereotype.Component;
+import utility.NamePattern;
+import utility.TemplateRegistry;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ListIterator;
 
 import static java.util.Objects.requireNonNull;
-import static model.Template.GENERIC;
 
 @Component
 public class ArgsParser {
@@ -21,7 +27,7 @@ public class ArgsParser {
             return null;
         }
 
-        var argsAsList = Arrays.asList(args);
+        var argsAsList = splitAssignments(args);
         if (argsAsList.contains("--help")) {
             help();
             return null;
@@ -31,6 +37,22 @@ public class ArgsParser {
         String template = null;
         boolean dryRun = false;
         String prefix = null;
+        boolean recursive = false;
+        boolean rollback = false;
+        int ioParallelism = 1;
+        PreviewMode preview = PreviewMode.FULL;
+        OrderBy orderBy = OrderBy.CREATION;
+        boolean cache = false;
+        Path cacheDir = null;
+        boolean watch = false;
+        String namePattern = null;
+        Path statsFile = null;
+        DedupeMode dedupe = DedupeMode.NONE;
+        boolean boundedMemory = false;
+        boolean assumeYes = false;
+        Path target = null;
+        boolean verify = false;
+        Path undo = null;
 
         var iterator = argsAsList.listIterator();
         while (iterator.hasNext()) {
@@ -40,7 +62,29 @@ public class ArgsParser {
                 case "--dir" -> dir = Paths.get(requireArg(iterator, "--dir required a valid argument"));
                 case "-t", "--template" -> template = requireArg(iterator, "-t, --template required an argument (ex. generic, olympus_c180)");
                 case "--dry-run" -> dryRun = true;
+                case "-y", "--yes" -> assumeYes = true;
                 case "--prefix" ->  prefix = requireArg(iterator, "--prefix required an argument (ex. IMG_");
+                case "-r", "--recursive" -> recursive = true;
+                case "--rollback" -> rollback = true;
+                case "--io-parallelism" -> ioParallelism = requirePositiveInt(iterator, "--io-parallelism required a number >= 1 (ex. 16)");
+                case "--order-by" -> orderBy = OrderBy.parse(requireArg(iterator, "--order-by required an argument (creation, exif, directory)"));
+                case "--dedupe" -> dedupe = DedupeMode.parse(requireArg(iterator, "--dedupe required an argument (report, skip, delete)"));
+                case "--cache" -> cache = true;
+                case "--cache-dir" -> {
+                    cache = true;
+                    cacheDir = Paths.get(requireArg(iterator, "--cache-dir required a valid argument"));
+                }
+                case "--target" -> target = Paths.get(requireArg(iterator, "--target required a valid argument"));
+                case "--verify" -> verify = true;
+                case "--undo" -> undo = Paths.get(requireArg(iterator, "--undo required the undo log of a run (ex. <dir>/.bulk-rename.undo)"));
+                case "--watch" -> watch = true;
+                case "--bounded-memory" -> boundedMemory = true;
+                case "--name-pattern" -> {
+                    namePattern = requireArg(iterator, "--name-pattern required an argument (ex. {prefix}{seq:04}{ext})");
+                    NamePattern.compile(namePattern); // fail fast on a malformed pattern
+                }
+                case "--stats" -> statsFile = Paths.get(requireArg(iterator, "--stats required a file (ex. stats.json)"));
+                case "--preview" -> preview = PreviewMode.parse(requireArg(iterator, "--preview required an argument (full, head:N, summary, file:<path>)"));
                 default -> {
                     System.err.printf("Unknown property %s", arg);
                     help();
@@ -49,20 +93,125 @@ public class ArgsParser {
             }
         }
 
+        if (undo != null && dir == null) {
+            dir = undo.toAbsolutePath().getParent();
+        }
         requireNonNull(dir);
         if (!Files.isDirectory(dir)) {
             throw new IllegalArgumentException("Path not valid");
         }
 
         template = template != null ? template.toLowerCase() : null;
+        var definition = template != null ? TemplateRegistry.INSTANCE.get(template) : null;
 
-        if (GENERIC.toLowerCase().equalsIgnoreCase(template)
+        if (definition != null && definition.prefixRequired()
                 && (prefix == null || prefix.isBlank())) {
             throw new IllegalArgumentException(
-                "--prefix is required when template is --template=generic");
+                "--prefix is required when template is --template=%s".formatted(template));
+        }
+
+        if (recursive && (definition == null || definition.folderPattern() == null)) {
+            throw new IllegalArgumentException(
+                "--recursive requires a template with a folder pattern (ex. olympus_c180)");
+        }
+
+        if (watch && recursive) {
+            throw new IllegalArgumentException("--watch works on a single folder, it can't be used with --recursive");
+        }
+        if (watch && (dedupe != DedupeMode.NONE || cache)) {
+            throw new IllegalArgumentException(
+                "--watch renames the new files as they arrive, it can't be combined with --dedupe or --cache");
+        }
+
+        if (boundedMemory && (watch || recursive || dedupe != DedupeMode.NONE || cache)) {
+            throw new IllegalArgumentException(
+                "--bounded-memory can't be combined with --watch, --recursive, --dedupe or --cache");
+        }
+
+        if (orderBy == OrderBy.DIRECTORY && (watch || recursive || boundedMemory || dedupe != DedupeMode.NONE
+                || cache || target != null)) {
+            throw new IllegalArgumentException("--order-by=directory can't be combined with --watch, --recursive, "
+                + "--bounded-memory, --dedupe, --cache or --target");
+        }
+
+        if (target != null && (watch || boundedMemory || rollback)) {
+            throw new IllegalArgumentException("--target can't be combined with --watch, --bounded-memory or --rollback");
+        }
+        if (target != null && dedupe == DedupeMode.DELETE) {
+            throw new IllegalArgumentException(
+                "--dedupe=delete can't be combined with --target, the originals stay in place: use --dedupe=skip");
+        }
+        if (undo != null && (template != null || recursive || watch || boundedMemory || target != null)) {
+            throw new IllegalArgumentException(
+                "--undo replays a log, it can't be combined with --template, --recursive, --watch, --bounded-memory or --target");
+        }
+        if (verify && target == null) {
+            throw new IllegalArgumentException("--verify checks the copies made with --target");
+        }
+
+        return new CliArgs(dir, template, dryRun, prefix, recursive, rollback, ioParallelism, preview, orderBy,
+            cache, cacheDir, watch, namePattern, statsFile, dedupe, boundedMemory, assumeYes, target, verify, undo);
+    }
+
+    /**
+     * Recognizes the command lines of the rename service: --serve starts the server,
+     * --client sends the rest of the command line to it as a job.
+     *
+     * @return the service arguments, null for a plain rename command line
+     */
+    public ServiceArgs parseService(String[] args) {
+        var argsAsList = splitAssignments(args);
+        boolean serve = argsAsList.contains("--serve");
+        boolean client = argsAsList.contains("--client");
+        if (!serve && !client) {
+            return null;
+        }
+        if (serve && client) {
+            throw new IllegalArgumentException("--serve and --client can't be used together");
+        }
+
+        var socket = ServiceArgs.defaultSocket();
+        int maxJobs = Runtime.getRuntime().availableProcessors();
+        var jobArgs = new ArrayList<String>();
+        var iterator = argsAsList.listIterator();
+        while (iterator.hasNext()) {
+            var arg = iterator.next();
+            switch (arg) {
+                case "--serve", "--client" -> {
+                }
+                case "--socket" -> socket = Paths.get(requireArg(iterator, "--socket required a valid argument"));
+                case "--max-jobs" -> {
+                    if (client) {
+                        throw new IllegalArgumentException("--max-jobs is a server option (--serve)");
+                    }
+                    maxJobs = requirePositiveInt(iterator, "--max-jobs required a number >= 1 (ex. 4)");
+                }
+                default -> {
+                    if (serve) {
+                        throw new IllegalArgumentException("Unknown server option %s (--socket, --max-jobs)".formatted(arg));
+                    }
+                    jobArgs.add(arg);
+                }
+            }
         }
+        return new ServiceArgs(client, socket, maxJobs, List.copyOf(jobArgs));
+    }
 
-        return new CliArgs(dir, template, dryRun, prefix);
+    /**
+     * Accepts both "--name value" and "--name=value".
+     */
+    private List<String> splitAssignments(String[] args) {
+        var argsAsList = new ArrayList<String>(args.length);
+        for (var arg : args) {
+            int equals = arg.indexOf('=');
+            if (arg.startsWith("--") && equals > 0) {
+                argsAsList.add(arg.substring(0, equals));
+                argsAsList.add(arg.substring(equals + 1));
+            } else {
+                argsAsList.add(arg);
+            }
+        }
+        return argsAsList;
     }
 
     private String requireArg(ListIterator<String> iterator, String errorMessage) {
@@ -71,6 +220,18 @@ public class ArgsParser {
         return iterator.next();
     }
 
+    private int requirePositiveInt(ListIterator<String> iterator, String errorMessage) {
+        try {
+            int value = Integer.parseInt(requireArg(iterator, errorMessage));
+            if (value < 1) {
+                throw new IllegalArgumentException(errorMessage);
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(errorMessage, e);
+        }
+    }
+
     private void help() {
         System.out.println("""
             Usage:
@@ -79,6 +240,37 @@ public class ArgsParser {
             Example:
               --dir "C:/olympus/120OLYMP" --template olympus_c180 -> P120XXXX.JPG
               --dir "C:/files" -t generic --prefix elmt_ -> elmt_XXX.*
+              --dir "E:/DCIM" -t olympus_c180 --recursive -> every NNNOLYMP folder under DCIM
+
+            Templates are defined in templates.properties, add your own in ~/.bulk-rename/templates.properties.
+            --name-pattern sets the new names, tokens: {prefix} {folder} {seq} {seq:04} {date:yyyyMMdd} {ext}
+              ex. --name-pattern "{prefix}{date:yyyyMMdd}_{seq:03}{ext}" -> elmt_20240131_001.jpg
+
+            Files are numbered by creation time, --order-by=exif uses the EXIF DateTimeOriginal of JPEG files.
+            --order-by=directory numbers the files in listing order and renames them while the folder is
+              still being scanned, when the new names don't depend on the file count (fixed width templates,
+              --name-pattern) and nothing has to be confirmed; otherwise it renames once the listing is over.
+            --dedupe=report|skip|delete finds byte-identical files before numbering them: report lists them,
+              skip renames only the oldest copy, delete removes the other copies once the run is confirmed
+              (a run that deleted files can't be undone). Hard links and symbolic links are not copies.
+            --cache (or --cache-dir <dir>) remembers the EXIF dates of unchanged files between runs.
+            Large batches: --preview=summary, --preview=head:50 or --preview=file:plan.tsv (or .json).
+            --stats=<file.json> writes phase timings, file system latencies and fallbacks of the run,
+            the same data is available as JFR events (category "Bulk Rename").
+            --bounded-memory keeps the heap flat on folders with millions of files: the listing is
+              sorted in runs spilled to the temp directory and the plan is streamed from disk.
+            --target <dir> leaves the files in place and puts the renamed files in another directory:
+              hard links on the same file system, zero-copy transfers otherwise (--verify compares checksums).
+            On network file systems add --io-parallelism <n> to keep n reads and moves in flight.
+            --watch keeps running and renames new files once they are fully written,
+            continuing the sequence after the highest number already in the folder
+            (templates asking for confirmation ask once, at startup).
+            Rename service, to skip the JVM startup of every run:
+              --serve [--socket <path>] [--max-jobs <n>]    keeps running and accepts jobs
+              --client [--socket <path>] <usual options>    runs a job on the server (generic needs --yes, no --stats)
+            Every run leaves an undo log in the folder: --undo <dir>/.bulk-rename.undo restores the names it changed.
+            An interrupted run is completed on the next start, add --rollback to restore
+            the original names instead.
             """);
     }
 }
@@ -0,0 +1,436 @@
+package factory;
+
+import model.CliArgs;
+import model.ExtensionMatcher;
+import model.OrderBy;
+import model.RenameMove;
+import model.ScannedFile;
+import org.springframework.stereotype.Component;
+import utility.DirectoryHandle;
+import utility.ExifReader;
+import utility.ExternalSort;
+import utility.ParallelIo;
+import utility.PreviewPrinter;
+import utility.RenameJournal;
+import utility.RenameLog;
+import utility.RenamerUtility;
+import utility.RunStats;
+import utility.TemplateRegistry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Renames a folder with memory bounded by constants instead of the number of entries,
+ * for folders with millions of files:
+ * - the listing is streamed, (sort key, name) records are spilled to sorted runs
+ *   ({@link ExternalSort}) and merged as a stream into sequence numbers
+ * - conflicts are checked with two sets of the sequence numbers found in existing names
+ *   ({@link SequenceSet}, bounded by the number of entries), the file system is probed only
+ *   for the numbers set in both the plan and the sets
+ * - the plan is streamed to a file and executed as two phases: files whose target may be
+ *   taken by another file of the plan go through a temporary name derived from their
+ *   sequence number, then to their target
+ * The journal is streamed from the plan file as well.
+ */
+@Component
+public class BoundedMemoryRenamer {
+    private static final int CHUNK_SIZE = 4096;
+    private static final byte IDENTITY = 0;
+    private static final byte DIRECT = 1;
+    private static final byte VIA_TMP = 2;
+
+    private final RenamerFactory renamerFactory;
+
+    public BoundedMemoryRenamer(RenamerFactory renamerFactory) {
+        this.renamerFactory = renamerFactory;
+    }
+
+    public int rename(CliArgs args) throws Exception {
+        var template = TemplateRegistry.INSTANCE.get(args.template());
+        var renamer = renamerFactory.get(args.template());
+        var extensions = template.extensions();
+        var dir = args.dir();
+        if (!Files.isDirectory(dir)) {
+            throw new IllegalArgumentException("Invalid directory: %s".formatted(dir));
+        }
+        RenamerUtility.INSTANCE.recover(dir, args.rollback());
+
+        // the narrowest padding: it recognizes the names of every padding
+        var sequencedName = renamer.naming(args, 0);
+        var spillDir = Files.createTempDirectory("bulk-rename-");
+        try (var sorter = new ExternalSort(spillDir, ExternalSort.DEFAULT_RUN_SIZE)) {
+            var kept = new SequenceSet(template.seqStart()); // numbers in the names of entries that keep their name
+            var renamed = new SequenceSet(template.seqStart()); // numbers in the names of files being renamed
+            long entries = 0;
+
+            try (var phase = RunStats.INSTANCE.phase("scan", dir);
+                 var handle = DirectoryHandle.open(dir)) {
+                var chunk = new ArrayList<Path>(CHUNK_SIZE);
+                for (var path : handle.entries()) {
+                    chunk.add(path);
+                    entries++;
+                    if (chunk.size() == CHUNK_SIZE) {
+                        scanChunk(handle, chunk, args, extensions, sequencedName, sorter, kept, renamed, entries);
+                        chunk.clear();
+                    }
+                }
+                scanChunk(handle, chunk, args, extensions, sequencedName, sorter, kept, renamed, entries);
+                phase.files(sorter.size());
+            }
+            if (sorter.size() == 0) {
+                System.out.printf("No accepted file found inside dir %s, accepted: %s", dir, extensions);
+                return 0;
+            }
+            if (sorter.size() > Integer.MAX_VALUE - template.seqStart()) {
+                throw new IllegalStateException("Too many files in %s: %d".formatted(dir, sorter.size()));
+            }
+
+            int count = (int) sorter.size();
+            kept.complete(count);
+            renamed.complete(count);
+            var planFile = spillDir.resolve("plan");
+            var moveCounts = plan(args, extensions, renamer.naming(args, count), template.seqStart(),
+                sorter, kept, renamed, planFile);
+            if (template.confirm() && !args.assumeYes() && !RenamerUtility.INSTANCE.confirmRename()) {
+                System.out.println("Aborted by user.");
+                return 0;
+            }
+            if (args.dryRun()) {
+                System.out.printf("\nDry run enabled, no files were renamed");
+                return 0;
+            }
+            execute(dir, planFile, moveCounts[0], moveCounts[1], args.ioParallelism());
+            System.out.printf("\nRename completed (directory %s).", dir.getFileName());
+            return moveCounts[0]; // the first phase moves every file getting a new name
+        } finally {
+            try (var leftovers = Files.list(spillDir)) {
+                for (var file : (Iterable<Path>) leftovers::iterator) {
+                    Files.deleteIfExists(file);
+                }
+            }
+            Files.deleteIfExists(spillDir);
+        }
+    }
+
+    private void scanChunk(DirectoryHandle handle, List<Path> chunk, CliArgs args, ExtensionMatcher extensions,
+                           SequenceNaming sequencedName, ExternalSort sorter, SequenceSet kept, SequenceSet renamed,
+                           long entries) throws IOException {
+        var files = ParallelIo.INSTANCE.map(chunk, Math.max(1, args.ioParallelism()), path -> {
+            var file = RenamerUtility.INSTANCE.scanFile(handle, path);
+            boolean accepted = file.isRegularFile() && RenamerUtility.INSTANCE.isAccepted(file.fileName(), extensions);
+            return new Scanned(file, accepted, accepted ? sortKey(file, args.orderBy()) : 0L);
+        });
+        for (var scanned : files) {
+            var name = scanned.file().fileName();
+            int seq = sequencedName.sequenceOf(name);
+            if (seq >= 0) {
+                (scanned.accepted() ? renamed : kept).add(seq, entries);
+            }
+            if (scanned.accepted()) {
+                sorter.add(scanned.key(), name);
+            }
+        }
+    }
+
+    private long sortKey(ScannedFile file, OrderBy orderBy) {
+        if (orderBy == OrderBy.EXIF) {
+            try {
+                long exifKey = ExifReader.INSTANCE.dateTimeOriginal(file.path());
+                if (exifKey != ExifReader.NOT_AVAILABLE) {
+                    return exifKey;
+                }
+            } catch (IOException e) {
+                // same as a missing date
+            }
+            RunStats.INSTANCE.fallback("exifToCreationTime", 1);
+        }
+        return file.creationTime();
+    }
+
+    /**
+     * Merges the sorted runs into the plan file, checking conflicts and previewing on the way.
+     *
+     * @return the number of moves of the first and of the second phase
+     */
+    private int[] plan(CliArgs args, ExtensionMatcher extensions, SequenceNaming naming, int seqStart,
+                       ExternalSort sorter, SequenceSet kept, SequenceSet renamed, Path planFile) throws IOException {
+        var dir = args.dir();
+        var nameFunction = naming.nameFunction();
+        var moveCounts = new int[2];
+        var next = new int[]{seqStart};
+        var target = new StringBuilder(64);
+        try (var phase = RunStats.INSTANCE.phase("merge", dir);
+             var preview = PreviewPrinter.INSTANCE.stream(args.preview());
+             var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(planFile), 1 << 16))) {
+            sorter.forEachSorted((key, source) -> {
+                int seq = next[0]++;
+                target.setLength(0);
+                nameFunction.appendTo(target, seq, source, key);
+                var targetName = target.toString();
+                if (kept.get(seq) && isKept(dir.resolve(targetName), extensions)) {
+                    throw new IllegalStateException("File %s already exist in this directory".formatted(
+                        dir.resolve(targetName)));
+                }
+
+                byte kind = source.equals(targetName) ? IDENTITY : renamed.get(seq) ? VIA_TMP : DIRECT;
+                out.writeByte(kind);
+                out.writeInt(seq);
+                out.writeUTF(source);
+                out.writeUTF(targetName);
+                if (kind != IDENTITY) {
+                    moveCounts[0]++;
+                }
+                if (kind == VIA_TMP) {
+                    moveCounts[1]++;
+                }
+                preview.add(seq, source, targetName);
+            });
+            phase.files(sorter.size());
+        }
+        return moveCounts;
+    }
+
+    /**
+     * Whether an existing entry with the target name keeps its name, the ambiguous
+     * case of the sets: a number may be in both kept and renamed names.
+     */
+    private boolean isKept(Path target, ExtensionMatcher extensions) {
+        if (!Files.exists(target)) {
+            return false;
+        }
+        return !(Files.isRegularFile(target)
+            && RenamerUtility.INSTANCE.isAccepted(target.getFileName().toString(), extensions));
+    }
+
+    private void execute(Path dir, Path planFile, int firstPhase, int secondPhase, int ioParallelism)
+            throws IOException {
+        if (firstPhase == 0) {
+            System.out.printf("\nAll files already have their new name");
+            return;
+        }
+        var phaseEnds = List.of(firstPhase, firstPhase + secondPhase);
+        try (var handle = DirectoryHandle.open(dir);
+             var moves = new PlanMoves(dir, planFile);
+             var journal = RenameJournal.create(dir, firstPhase + secondPhase, moves, phaseEnds)) {
+            for (int phase = 1; phase <= 2; phase++) {
+                try (var stats = RunStats.INSTANCE.phase("movesPhase" + phase, dir);
+                     var phaseMoves = new PlanMoves(dir, planFile, phase)) {
+                    var chunk = new ArrayList<RenameMove>(CHUNK_SIZE);
+                    while (phaseMoves.hasNext()) {
+                        chunk.add(phaseMoves.next());
+                        if (chunk.size() == CHUNK_SIZE) {
+                            RenamerUtility.INSTANCE.applyPhase(handle, chunk, ioParallelism);
+                            chunk.clear();
+                        }
+                    }
+                    RenamerUtility.INSTANCE.applyPhase(handle, chunk, ioParallelism);
+                    journal.checkpoint(phaseEnds.get(phase - 1));
+                    stats.files(phase == 1 ? firstPhase : secondPhase);
+                }
+            }
+            journal.complete();
+        }
+        System.out.printf("\n%d file renamed with %d moves", firstPhase, firstPhase + secondPhase);
+        try {
+            writeUndoLog(dir, planFile, firstPhase);
+        } catch (IOException e) {
+            System.err.printf("\nUndo log not written: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Streams the renamed entries of the plan file into the undo log of the directory.
+     */
+    private void writeUndoLog(Path dir, Path planFile, int count) throws IOException {
+        try (var log = RenameLog.create(dir, count);
+             var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(planFile), 1 << 16))) {
+            while (true) {
+                byte kind;
+                try {
+                    kind = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                in.readInt(); // sequence number
+                var source = in.readUTF();
+                var target = in.readUTF();
+                if (kind != IDENTITY) {
+                    log.add(source, target);
+                }
+            }
+            log.commit();
+        }
+    }
+
+    private static Path tmpName(Path dir, int seq) {
+        return dir.resolve(".bulk-rename-%d.tmp".formatted(seq));
+    }
+
+    private record Scanned(ScannedFile file, boolean accepted, long key) {
+    }
+
+    /**
+     * Sequence numbers found in names, with memory bounded by the number of entries instead of
+     * the largest number (a name like x_2000000000.png would allocate a 256MB bitset).
+     * The plan can't use more numbers than there are entries: numbers below seqStart plus the
+     * count of entries listed so far go to a bitset, the others are deferred in an array and
+     * moved to the bitset as the listing grows. What is still deferred once the file count is
+     * known is out of reach of the plan and dropped.
+     */
+    private static final class SequenceSet {
+        private final int seqStart;
+        private final BitSet numbers = new BitSet(); // offsets from seqStart
+        private int[] deferred = new int[64];
+        private int deferredCount = 0;
+
+        private SequenceSet(int seqStart) {
+            this.seqStart = seqStart;
+        }
+
+        /**
+         * @param seq     the number found in a name
+         * @param entries the number of entries listed so far
+         */
+        void add(int seq, long entries) {
+            long offset = (long) seq - seqStart;
+            if (offset < 0) {
+                return; // before the first number of the plan
+            }
+            if (offset < entries) {
+                numbers.set((int) offset);
+                return;
+            }
+            if (deferredCount == deferred.length) {
+                settle(entries);
+                if (deferredCount > deferred.length / 2) {
+                    deferred = Arrays.copyOf(deferred, deferred.length * 2);
+                }
+            }
+            deferred[deferredCount++] = (int) offset;
+        }
+
+        /**
+         * Keeps the deferred numbers within the plan of {@code count} files, drops the others.
+         */
+        void complete(int count) {
+            settle(count);
+            deferred = new int[0];
+            deferredCount = 0;
+        }
+
+        boolean get(int seq) {
+            long offset = (long) seq - seqStart;
+            return offset >= 0 && offset <= Integer.MAX_VALUE && numbers.get((int) offset);
+        }
+
+        /**
+         * Moves the deferred numbers below the bound to the bitset.
+         */
+        private void settle(long bound) {
+            int left = 0;
+            for (int i = 0; i < deferredCount; i++) {
+                if (deferred[i] < bound) {
+                    numbers.set(deferred[i]);
+                } else {
+                    deferred[left++] = deferred[i];
+                }
+            }
+            deferredCount = left;
+        }
+    }
+
+    /**
+     * Streams the moves of the plan file: those of phase 1 (to the target, or to the
+     * temporary name), those of phase 2 (from the temporary name), or both in order.
+     */
+    private static final class PlanMoves implements Iterator<RenameMove>, AutoCloseable {
+        private final Path dir;
+        private final Path planFile;
+        private final int lastPhase;
+        private int phase;
+        private DataInputStream in;
+        private RenameMove next;
+
+        private PlanMoves(Path dir, Path planFile) throws IOException {
+            this(dir, planFile, 1, 2);
+        }
+
+        private PlanMoves(Path dir, Path planFile, int phase) throws IOException {
+            this(dir, planFile, phase, phase);
+        }
+
+        private PlanMoves(Path dir, Path planFile, int firstPhase, int lastPhase) throws IOException {
+            this.dir = dir;
+            this.planFile = planFile;
+            this.phase = firstPhase;
+            this.lastPhase = lastPhase;
+            this.in = open();
+        }
+
+        private DataInputStream open() throws IOException {
+            return new DataInputStream(new BufferedInputStream(Files.newInputStream(planFile), 1 << 16));
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null) {
+                    byte kind;
+                    try {
+                        kind = in.readByte();
+                    } catch (EOFException e) {
+                        if (phase == lastPhase) {
+                            return false;
+                        }
+                        in.close();
+                        in = open();
+                        phase++;
+                        continue;
+                    }
+                    int seq = in.readInt();
+                    var source = dir.resolve(in.readUTF());
+                    var target = dir.resolve(in.readUTF());
+                    if (phase == 1 && kind == DIRECT) {
+                        next = new RenameMove(source, target);
+                    } else if (phase == 1 && kind == VIA_TMP) {
+                        next = new RenameMove(source, tmpName(dir, seq));
+                    } else if (phase == 2 && kind == VIA_TMP) {
+                        next = new RenameMove(tmpName(dir, seq), target);
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error reading the rename plan", e);
+            }
+        }
+
+        @Override
+        public RenameMove next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            var move = next;
+            next = null;
+            return move;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package factory;
+
+import model.CliArgs;
+import org.springframework.stereotype.Component;
+import utility.RenamerUtility;
+import utility.TemplateRegistry;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a folder based renamer (ex. olympus_c180) on every matching folder under a root,
+ * one task per folder on a pool bounded by the available processors.
+ * A folder failing doesn't stop the others, the run fails once all of them are done.
+ */
+@Component
+public class RecursiveRenamer {
+    private final RenamerFactory renamerFactory;
+
+    public RecursiveRenamer(RenamerFactory renamerFactory) {
+        this.renamerFactory = renamerFactory;
+    }
+
+    public int rename(CliArgs args) throws Exception {
+        var template = TemplateRegistry.INSTANCE.get(args.template());
+        if (template.folderPattern() == null) {
+            throw new IllegalArgumentException(
+                "Template %s has no folder pattern, --recursive not supported".formatted(args.template()));
+        }
+
+        var renamer = renamerFactory.get(args.template());
+        var folders = RenamerUtility.INSTANCE.findFolders(args.dir(), template.folderPattern());
+        if (folders.isEmpty()) {
+            System.out.printf("No folder matching %s found under %s", template.folderPattern(), args.dir());
+            return 0;
+        }
+
+        int threads = Math.min(folders.size(), Runtime.getRuntime().availableProcessors());
+        var results = new ArrayList<Future<Integer>>(folders.size());
+        try (var executor = Executors.newFixedThreadPool(threads)) {
+            for (var folder : folders) {
+                results.add(executor.submit(() -> renamer.rename(args.withDir(folder))));
+            }
+        }
+
+        return report(folders, results);
+    }
+
+    private int report(List<Path> folders, List<Future<Integer>> results)
+            throws InterruptedException {
+        var report = new StringBuilder("\n\nRecursive rename report (%d folder):".formatted(folders.size()));
+        int total = 0;
+        int failed = 0;
+        for (int i = 0; i < folders.size(); i++) {
+            report.append("\n").append(folders.get(i)).append(" -> ");
+            try {
+                int count = results.get(i).get();
+                total += count;
+                report.append(count).append(" file");
+            } catch (ExecutionException e) {
+                failed++;
+                report.append("FAILED: ").append(e.getCause().getMessage());
+            }
+        }
+        report.append("\nTotal: %d file in %d folder, %d failed".formatted(total, folders.size() - failed, failed));
+        System.out.println(report);
+        if (failed > 0) {
+            // a partial failure must not exit with 0, scripts would take it for a success
+            throw new IllegalStateException("Rename failed in %d of %d folder, %d file renamed in the others"
+                .formatted(failed, folders.size(), total));
+        }
+        return total;
+    }
+}
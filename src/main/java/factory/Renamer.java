@@ -2,9 +2,23 @@ package factory;
 
 import model.CliArgs;
 
-import java.nio.file.Path;
-
 public interface Renamer {
     String template();
     int rename(CliArgs args) throws Exception;
+
+    /**
+     * @param args            the arguments of the run (directory, prefix...)
+     * @param highestSequence highest sequence number the names must be able to hold
+     * @return the naming used by this template
+     */
+    SequenceNaming naming(CliArgs args, int highestSequence);
+
+    /**
+     * @param args the arguments of the run
+     * @return true if the names depend on the highest sequence number (padded to the file count),
+     *         false if they are known before the files are counted
+     */
+    default boolean namesDependOnCount(CliArgs args) {
+        return true;
+    }
 }
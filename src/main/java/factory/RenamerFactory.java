@@ -1,26 +1,48 @@
 package factory;
 
 import org.springframework.stereotype.Component;
+import utility.TemplateRegistry;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.ServiceLoader;
 
 @Component
 public class RenamerFactory {
     private final Map<String, Renamer> renamers;
 
+    /**
+     * One {@link TemplateRenamer} per template of the {@link TemplateRegistry}, plus the
+     * renamers listed in META-INF/services/factory.Renamer, for templates that need code.
+     */
+    public RenamerFactory() {
+        this(ServiceLoader.load(Renamer.class, RenamerFactory.class.getClassLoader())
+            .stream()
+            .map(ServiceLoader.Provider::get)
+            .toList());
+    }
+
+    /**
+     * @param renamers renamers replacing or adding to the templates of the registry
+     */
     public RenamerFactory(List<Renamer> renamers) {
-        this.renamers = renamers.stream()
-            .collect(Collectors.toUnmodifiableMap(
-        r -> r.template().toLowerCase(),
-        r -> r
-            ));
+        var byTemplate = new HashMap<String, Renamer>();
+        TemplateRegistry.INSTANCE.all().forEach((name, template) -> byTemplate.put(name, new TemplateRenamer(template)));
+        renamers.forEach(r -> byTemplate.put(r.template().toLowerCase(), r));
+        this.renamers = Map.copyOf(byTemplate);
+    }
+
+    /**
+     * Builds the factory for launches without a Spring context.
+     */
+    public static RenamerFactory fromServiceLoader() {
+        return new RenamerFactory();
     }
 
     public Renamer get(String fileType) {
-        var renamer = renamers.get(fileType.toLowerCase());
+        var renamer = fileType != null ? renamers.get(fileType.toLowerCase()) : null;
         return Optional.ofNullable(renamer)
             .orElseThrow(() -> new IllegalArgumentException(
                 "Type %s not supported, available: %s"
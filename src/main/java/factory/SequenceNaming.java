@@ -0,0 +1,29 @@
+package factory;
+
+import utility.SequenceNameFunction;
+
+import java.util.regex.Pattern;
+
+/**
+ * Naming of a sequence: how new names are generated, and how to recognize a name
+ * already generated (group 1 captures the sequence number).
+ */
+public record SequenceNaming(
+        Pattern sequencedName,
+        SequenceNameFunction nameFunction
+) {
+    /**
+     * @return the sequence number carried by the file name, -1 if it is not a sequenced name
+     */
+    public int sequenceOf(String fileName) {
+        var m = sequencedName.matcher(fileName);
+        if (!m.matches()) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(m.group(1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
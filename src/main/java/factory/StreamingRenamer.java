@@ -0,0 +1,359 @@
+package factory;
+
+import model.CliArgs;
+import model.NameIndex;
+import model.RenameMove;
+import model.ScannedFile;
+import org.springframework.stereotype.Component;
+import utility.DirectoryHandle;
+import utility.ParallelIo;
+import utility.PreviewPrinter;
+import utility.RenameJournal;
+import utility.RenameLog;
+import utility.RenamerUtility;
+import utility.RunStats;
+import utility.TemplateRegistry;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Renames a folder in listing order (--order-by=directory) as a pipeline instead of
+ * scanning, planning and moving one stage after the other:
+ * - a scanner thread lists the entries and reads their attributes (in chunks, {@code ioParallelism}
+ *   reads in flight) into a bounded queue
+ * - the accepted files are numbered as they come out of the queue. When the names don't depend
+ *   on the file count (fixed width templates, --name-pattern) and no confirmation is needed, every
+ *   file is previewed and moved in batches while the scan is still going: straight to its new name
+ *   when that name is free, through a temporary name otherwise. A batch is executed as soon as it
+ *   is full or the queue runs dry
+ * - once the scan is over the count is known: the remaining names are generated and checked against
+ *   the entries that keep their name, the plan is previewed and confirmed, then the files are moved,
+ *   directly to free names and through temporary names to the others, and from the temporary names
+ *   to their new names in a last phase
+ * Files already carrying their own number stay in place. A name differing only by case from the
+ * current one is reached through a temporary name, as a case insensitive file system sees the
+ * same file under both names.
+ * <p>
+ * The phases are appended to a streamed {@link RenameJournal}: the batches of the scan as they start,
+ * the phases after the scan together, once the plan is complete. A run interrupted before the plan
+ * is complete is rolled back on the next start, a conflict rolls it back right away.
+ */
+@Component
+public class StreamingRenamer {
+    private static final int QUEUE_SIZE = 4096;
+    private static final int SCAN_CHUNK_SIZE = 64;
+    private static final int BATCH_SIZE = 512;
+    private static final ScannedFile END = new ScannedFile(Path.of(""), ScannedFile.Type.OTHER, 0L, 0L, 0L, null);
+
+    private final RenamerFactory renamerFactory;
+
+    public StreamingRenamer(RenamerFactory renamerFactory) {
+        this.renamerFactory = renamerFactory;
+    }
+
+    public int rename(CliArgs args) throws Exception {
+        var template = TemplateRegistry.INSTANCE.get(args.template());
+        var renamer = renamerFactory.get(args.template());
+        var extensions = template.extensions();
+        var dir = args.dir();
+        if (!Files.isDirectory(dir)) {
+            throw new IllegalArgumentException("Invalid directory: %s".formatted(dir));
+        }
+        RenamerUtility.INSTANCE.recover(dir, args.rollback());
+
+        // the narrowest padding: it recognizes the names of every padding
+        var inSequence = renamer.naming(args, 0);
+        // names known while scanning, null when they depend on the file count
+        var scanNaming = renamer.namesDependOnCount(args) ? null : inSequence.nameFunction();
+        boolean confirm = template.confirm() && !args.assumeYes();
+        // files are moved during the scan only once they have been previewed and nothing has to be asked
+        boolean streamMoves = scanNaming != null && !confirm;
+        var tmpPrefix = ".bulk-rename-%08x-".formatted(ThreadLocalRandom.current().nextInt());
+        int ioParallelism = Math.max(1, args.ioParallelism());
+        int seqStart = template.seqStart();
+
+        var sources = new ArrayList<String>();
+        var targets = new ArrayList<String>();
+        var keys = new long[1024];
+        var placed = new BitSet(); // files moved to their new name during the scan
+        var parked = new BitSet(); // files moved to their temporary name during the scan
+        var movedIn = new HashSet<String>(); // new names taken during the scan
+        var taken = new ArrayList<String>(); // entries keeping their name
+        int journaled = 0;
+        int renamed;
+
+        var queue = new ArrayBlockingQueue<ScannedFile>(QUEUE_SIZE);
+        try (var handle = DirectoryHandle.open(dir);
+             var journal = args.dryRun() ? null : RenameJournal.createStreamed(dir)) {
+            var preMoves = new ArrayList<RenameMove>(); // files left in place by the scan, to their name or a temporary one
+            var moves = new ArrayList<RenameMove>(); // from the temporary names, last phase
+            int count;
+            try (var preview = PreviewPrinter.INSTANCE.stream(args.preview())) {
+                try (var phase = RunStats.INSTANCE.phase("scanAndMovesPhase1", dir);
+                     var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                    var scanner = executor.submit(() -> {
+                        try {
+                            var chunk = new ArrayList<Path>(SCAN_CHUNK_SIZE);
+                            for (var path : handle.entries()) {
+                                if (!path.getFileName().toString().startsWith(tmpPrefix)) {
+                                    chunk.add(path);
+                                }
+                                if (chunk.size() == SCAN_CHUNK_SIZE) {
+                                    scanChunk(handle, chunk, ioParallelism, queue);
+                                }
+                            }
+                            scanChunk(handle, chunk, ioParallelism, queue);
+                        } finally {
+                            queue.put(END);
+                        }
+                        return null;
+                    });
+                    try {
+                        var batch = new ArrayList<RenameMove>(BATCH_SIZE);
+                        var target = new StringBuilder(64);
+                        while (true) {
+                            var file = batch.isEmpty() ? queue.take() : queue.poll();
+                            if (file == null) {
+                                // the scan is behind: move what is ready, the queue fills up meanwhile
+                                journaled = movePhase(handle, journal, batch, journaled, ioParallelism);
+                                continue;
+                            }
+                            if (file == END) {
+                                break;
+                            }
+
+                            var name = file.fileName();
+                            if (movedIn.contains(name)) {
+                                continue; // a file of this run, listed again under its new name
+                            }
+                            if (!file.isRegularFile() || !RenamerUtility.INSTANCE.isAccepted(name, extensions)) {
+                                taken.add(name);
+                                continue;
+                            }
+                            int index = sources.size();
+                            if (index == keys.length) {
+                                keys = Arrays.copyOf(keys, index * 2);
+                            }
+                            sources.add(name);
+                            keys[index] = file.creationTime();
+                            if (scanNaming == null) {
+                                continue; // named once the count is known
+                            }
+
+                            int seq = seqStart + index;
+                            target.setLength(0);
+                            scanNaming.appendTo(target, seq, name, keys[index]);
+                            var targetName = target.toString();
+                            targets.add(targetName);
+                            preview.add(seq, name, targetName);
+                            if (!streamMoves || name.equals(targetName)) {
+                                continue;
+                            }
+                            if (name.equalsIgnoreCase(targetName) || handle.exists(dir.resolve(targetName))) {
+                                // held by a file not numbered yet, or by this one ignoring case
+                                batch.add(new RenameMove(file.path(), dir.resolve(tmpName(tmpPrefix, seq))));
+                                parked.set(index);
+                            } else {
+                                batch.add(new RenameMove(file.path(), dir.resolve(targetName)));
+                                movedIn.add(targetName);
+                                placed.set(index);
+                            }
+                            if (batch.size() == BATCH_SIZE) {
+                                journaled = movePhase(handle, journal, batch, journaled, ioParallelism);
+                            }
+                        }
+                        journaled = movePhase(handle, journal, batch, journaled, ioParallelism);
+                        scanner.get();
+                    } catch (ExecutionException e) {
+                        abort(dir, journal);
+                        throw e.getCause() instanceof IOException cause ? cause : new IOException(e.getCause());
+                    } finally {
+                        scanner.cancel(true);
+                    }
+                    phase.files(sources.size());
+                }
+
+                count = sources.size();
+                if (count == 0) {
+                    if (journal != null) {
+                        journal.complete();
+                    }
+                    System.out.printf("No accepted file found inside dir %s, accepted: %s", dir, extensions);
+                    return 0;
+                }
+
+                try (var phase = RunStats.INSTANCE.phase("plan", dir)) {
+                    var nameFunction = renamer.naming(args, count).nameFunction();
+                    var takenNames = NameIndex.of(taken.toArray(String[]::new), true);
+                    var sourceNames = NameIndex.of(sources.toArray(String[]::new), true);
+                    var target = new StringBuilder(64);
+                    for (int i = 0; i < count; i++) {
+                        int seq = seqStart + i;
+                        var source = sources.get(i);
+                        if (scanNaming == null) {
+                            target.setLength(0);
+                            nameFunction.appendTo(target, seq, source, keys[i]);
+                            targets.add(target.toString());
+                            preview.add(seq, source, targets.get(i));
+                        }
+                        var targetName = targets.get(i);
+                        if (placed.get(i)) {
+                            continue; // the name was free when the file was moved to it
+                        }
+
+                        // a name differing only by case is a conflict where the file system ignores case
+                        int existing = takenNames.indexOf(targetName);
+                        boolean inPlace = source.equals(targetName);
+                        if (existing >= 0 && (taken.get(existing).equals(targetName)
+                                || !inPlace && handle.exists(dir.resolve(targetName)))) {
+                            abort(dir, journal);
+                            throw new IllegalStateException("File %s already exist in this directory".formatted(
+                                dir.resolve(taken.get(existing))));
+                        }
+                        var tmp = dir.resolve(tmpName(tmpPrefix, seq));
+                        if (parked.get(i)) {
+                            moves.add(new RenameMove(tmp, dir.resolve(targetName)));
+                        } else if (inPlace) {
+                            continue;
+                        } else if (existing >= 0 || sourceNames.indexOf(targetName) >= 0) {
+                            // held by a file of the plan, by this one ignoring case or by an entry of another case
+                            preMoves.add(new RenameMove(dir.resolve(source), tmp));
+                            moves.add(new RenameMove(tmp, dir.resolve(targetName)));
+                        } else {
+                            preMoves.add(new RenameMove(dir.resolve(source), dir.resolve(targetName)));
+                        }
+                    }
+                    phase.files(count);
+                }
+            }
+
+            if (confirm && !RenamerUtility.INSTANCE.confirmRename()) {
+                if (journal != null) {
+                    journal.complete(); // nothing was moved, files are only moved during the scan without confirmation
+                }
+                System.out.println("Aborted by user.");
+                return 0;
+            }
+            if (journal == null) {
+                System.out.printf("\nDry run enabled, no files were renamed");
+                return 0;
+            }
+            if (journaled == 0 && preMoves.isEmpty() && moves.isEmpty()) {
+                journal.complete();
+                System.out.printf("\nAll %d file already have their new name", count);
+                return 0;
+            }
+            // the plan is complete: both phases are journaled first, so recovery can finish the run
+            if (!preMoves.isEmpty()) {
+                journal.appendPhase(preMoves, moves.isEmpty());
+            }
+            if (!moves.isEmpty()) {
+                journal.appendPhase(moves, true);
+            }
+            if (!preMoves.isEmpty()) {
+                try (var phase = RunStats.INSTANCE.phase("movesPhase1", dir)) {
+                    RenamerUtility.INSTANCE.applyPhase(handle, preMoves, ioParallelism);
+                    journaled += preMoves.size();
+                    journal.checkpoint(journaled);
+                    phase.files(preMoves.size());
+                }
+            }
+            if (!moves.isEmpty()) {
+                try (var phase = RunStats.INSTANCE.phase("movesPhase2", dir)) {
+                    RenamerUtility.INSTANCE.applyPhase(handle, moves, ioParallelism);
+                    journaled += moves.size();
+                    journal.checkpoint(journaled);
+                    phase.files(moves.size());
+                }
+            }
+            journal.complete();
+            renamed = renamedCount(sources, targets);
+            System.out.printf("\n%d file renamed with %d moves", renamed, journaled);
+            try {
+                writeUndoLog(dir, sources, targets, renamed);
+            } catch (IOException e) {
+                System.err.printf("\nUndo log not written: %s", e.getMessage());
+            }
+        }
+        System.out.printf("\nRename completed (directory %s).", dir.getFileName());
+        return renamed;
+    }
+
+    /**
+     * Reads the attributes of a chunk of the listing, {@code ioParallelism} at a time, and queues
+     * them in listing order, then clears it.
+     */
+    private void scanChunk(DirectoryHandle handle, List<Path> chunk, int ioParallelism,
+                           BlockingQueue<ScannedFile> queue) throws IOException, InterruptedException {
+        var files = ParallelIo.INSTANCE.map(chunk, ioParallelism,
+            path -> RenamerUtility.INSTANCE.scanFile(handle, path));
+        for (var file : files) {
+            queue.put(file);
+        }
+        chunk.clear();
+    }
+
+    /**
+     * Journals and executes a batch of independent moves, then clears it.
+     *
+     * @return the number of moves journaled so far
+     */
+    private int movePhase(DirectoryHandle handle, RenameJournal journal, List<RenameMove> batch, int journaled,
+                          int ioParallelism) throws IOException {
+        if (journal != null && !batch.isEmpty()) {
+            journal.appendPhase(batch, false);
+            RenamerUtility.INSTANCE.applyPhase(handle, batch, ioParallelism);
+            journaled += batch.size();
+            journal.checkpoint(journaled);
+        }
+        batch.clear();
+        return journaled;
+    }
+
+    /**
+     * Puts the files moved so far back in place, the streamed journal can only be rolled back.
+     */
+    private void abort(Path dir, RenameJournal journal) throws IOException {
+        if (journal != null) {
+            journal.close();
+            RenamerUtility.INSTANCE.recover(dir, true);
+        }
+    }
+
+    private static int renamedCount(List<String> sources, List<String> targets) {
+        int renamed = 0;
+        for (int i = 0; i < targets.size(); i++) {
+            if (!sources.get(i).equals(targets.get(i))) {
+                renamed++;
+            }
+        }
+        return renamed;
+    }
+
+    private void writeUndoLog(Path dir, List<String> sources, List<String> targets, int renamed) throws IOException {
+        try (var log = RenameLog.create(dir, renamed)) {
+            for (int i = 0; i < targets.size(); i++) {
+                if (!sources.get(i).equals(targets.get(i))) {
+                    log.add(sources.get(i), targets.get(i));
+                }
+            }
+            log.commit();
+        }
+    }
+
+    private static String tmpName(String tmpPrefix, int seq) {
+        return tmpPrefix + seq + ".tmp";
+    }
+}
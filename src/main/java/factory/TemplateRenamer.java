@@ -0,0 +1,125 @@
+package factory;
+
+import model.CliArgs;
+import model.Template;
+import utility.MetadataCache;
+import utility.NamePattern;
+import utility.RenamerUtility;
+import utility.TargetTransfer;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.util.regex.Pattern;
+
+/**
+ * Renames a single folder following a {@link Template}: the same engine serves every
+ * template of the {@link utility.TemplateRegistry}, a new camera only needs a new definition.
+ */
+public class TemplateRenamer implements Renamer {
+    private final Template template;
+    private final NamePattern namePattern; // null when the naming depends on the file count
+
+    public TemplateRenamer(Template template) {
+        this.template = template;
+        this.namePattern = template.namePattern() != null
+            ? NamePattern.compile(template.namePattern())
+            : template.seqLength() > 0 ? NamePattern.compile(defaultNamePattern(template.seqLength())) : null;
+    }
+
+    @Override
+    public String template() {
+        return template.name();
+    }
+
+    @Override
+    public int rename(CliArgs args) throws Exception {
+        validateDir(args.dir());
+        RenamerUtility.INSTANCE.recover(args.dir(), args.rollback());
+
+        if (template.prefixRequired() && (args.prefix() == null || args.prefix().isBlank())) {
+            throw new IllegalArgumentException("--prefix is required for %s renamer".formatted(template.name()));
+        }
+
+        var snapshot = RenamerUtility.INSTANCE.scan(args.dir(), template.extensions(), args.ioParallelism());
+        if (snapshot.isEmpty()) {
+            System.out.printf("No accepted file found inside dir %s, accepted: %s", args.dir(), template.extensions());
+            return 0;
+        }
+        var deduplication = RenamerUtility.INSTANCE.dedupe(snapshot, args.dedupe(), args.ioParallelism());
+        snapshot = deduplication.snapshot();
+        var deletions = deduplication.deletions();
+
+        var cache = args.cache()
+            ? MetadataCache.load(MetadataCache.fileFor(args.dir(), args.cacheDir()))
+            : null;
+        var keys = RenamerUtility.INSTANCE.sortKeys(snapshot, args.orderBy(), args.ioParallelism(), cache);
+        var naming = naming(args, snapshot.files().size());
+        if (args.target() != null) {
+            var plan = RenamerUtility.INSTANCE.mapSequence(snapshot, keys, template.seqStart(), naming.nameFunction());
+            RenamerUtility.INSTANCE.preview(plan, args.preview());
+            TargetTransfer.INSTANCE.place(plan, args.target(), args.verify(), args.dryRun(), args.ioParallelism());
+            return args.dryRun() ? 0 : plan.size();
+        }
+
+        // the narrowest padding: it recognizes the names of every padding
+        var inSequence = naming(args, 0);
+        var plan = RenamerUtility.INSTANCE.mergeSequence(
+            snapshot,
+            keys,
+            template.seqStart(),
+            naming.nameFunction(),
+            inSequence::sequenceOf);
+        RenamerUtility.INSTANCE.preview(plan, args.preview());
+        if (RenamerUtility.INSTANCE.reportSequence(plan, inSequence::sequenceOf) == plan.size()
+                && deletions.isEmpty()) {
+            System.out.printf("\nNothing to rename (directory %s).", args.dir().getFileName());
+            return 0;
+        }
+
+        if (template.confirm() && !args.assumeYes() && !RenamerUtility.INSTANCE.confirmRename()) {
+            System.out.println("Aborted by user.");
+            return 0;
+        }
+
+        RenamerUtility.INSTANCE.checkConflicts(plan, snapshot);
+        RenamerUtility.INSTANCE.deleteDuplicates(args.dir(), deletions, args.dryRun());
+        int renamed = RenamerUtility.INSTANCE.renames(plan, deletions, args.dryRun(), args.ioParallelism());
+
+        System.out.printf("\nRename completed (directory %s).", args.dir().getFileName());
+        return renamed;
+    }
+
+    @Override
+    public SequenceNaming naming(CliArgs args, int highestSequence) {
+        int folderNumber = template.folderPattern() != null
+            ? RenamerUtility.INSTANCE.extractPrefix(args.dir(), template.folderPattern())
+            : NamePattern.NO_FOLDER;
+        var pattern = args.namePattern() != null ? NamePattern.compile(args.namePattern())
+            : namePattern != null ? namePattern
+            : NamePattern.compile(defaultNamePattern(Math.max(2, String.valueOf(highestSequence).length()))); // min 2 -> "01"
+        return new SequenceNaming(
+            pattern.sequencedName(args.prefix(), folderNumber, template.namesIgnoreCase() ? Pattern.CASE_INSENSITIVE : 0),
+            pattern.bind(args.prefix(), folderNumber, ZoneId.systemDefault()));
+    }
+
+    @Override
+    public boolean namesDependOnCount(CliArgs args) {
+        return args.namePattern() == null && namePattern == null;
+    }
+
+    private static String defaultNamePattern(int seqLength) {
+        return "{prefix}{seq:0" + seqLength + "}{ext}";
+    }
+
+    private void validateDir(Path dir) {
+        if (!Files.isDirectory(dir)) {
+            throw new IllegalArgumentException("Invalid directory: %s".formatted(dir));
+        }
+        if (template.folderPattern() != null
+                && !template.folderPattern().matcher(dir.getFileName().toString()).matches()) {
+            throw new IllegalArgumentException("Directory must match the folder names of template %s%s".formatted(
+                template.name(), template.folderHint() != null ? ".\nEx: " + template.folderHint() : ": " + template.folderPattern()));
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package factory;
+
+import model.CliArgs;
+import model.DirectorySnapshot;
+import model.ExtensionMatcher;
+import model.RenameMove;
+import model.RenamePlan;
+import model.ScannedFile;
+import org.springframework.stereotype.Component;
+import utility.RenameLog;
+import utility.RenamerUtility;
+import utility.TemplateRegistry;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Keeps a directory renamed while files arrive: new files are collected from
+ * {@link java.nio.file.WatchService} events, and once they stop changing they are
+ * renamed in batches with the next free sequence numbers after the highest existing one.
+ * Only the new files are stat-ed, sorted and moved, whatever the size of the directory.
+ * <p>
+ * A batch that fails is rolled back and skipped, the watch goes on with the next ones.
+ * The undo log covers every batch renamed since the watch started.
+ */
+@Component
+public class WatchRenamer {
+    private static final long POLL_MILLIS = 500;
+    private static final long QUIET_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final long MAX_BATCH_WAIT_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    private final RenamerFactory renamerFactory;
+
+    public WatchRenamer(RenamerFactory renamerFactory) {
+        this.renamerFactory = renamerFactory;
+    }
+
+    /**
+     * Watches the directory until the thread is interrupted or the directory disappears.
+     *
+     * @return the number of files renamed
+     */
+    public int watch(CliArgs args) throws Exception {
+        var template = TemplateRegistry.INSTANCE.get(args.template());
+        var renamer = renamerFactory.get(args.template());
+        var extensions = template.extensions();
+        var dir = args.dir();
+        RenamerUtility.INSTANCE.recover(dir, args.rollback());
+        // a single answer covers every batch of the session
+        if (template.confirm() && !args.assumeYes() && !RenamerUtility.INSTANCE.confirmRename()) {
+            System.out.println("Aborted by user.");
+            return 0;
+        }
+
+        var sequencedName = renamer.naming(args, 0);
+        var pending = new LinkedHashMap<String, Observed>();
+        var ignored = new HashSet<String>();
+        int highest = template.seqStart() - 1;
+        int renamed = 0;
+        var session = new ArrayList<RenameMove>(); // moves of the renamed batches, for the undo log
+
+        try (var watchService = dir.getFileSystem().newWatchService()) {
+            dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+
+            // registered before the initial scan, so no file can slip between the two
+            var snapshot = RenamerUtility.INSTANCE.scan(dir, extensions, args.ioParallelism());
+            for (var file : snapshot.files()) {
+                var seq = sequencedName.sequenceOf(file.fileName());
+                if (seq >= 0) {
+                    highest = Math.max(highest, seq);
+                } else {
+                    pending.put(file.fileName(), null);
+                }
+            }
+            System.out.printf("Watching %s, next sequence number %d, %d file waiting%n",
+                dir, highest + 1, pending.size());
+
+            long firstReady = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                var key = watchService.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    collect(key, dir, extensions, sequencedName, pending, ignored);
+                    if (!key.reset()) {
+                        System.out.printf("%s is no longer accessible, stop watching%n", dir);
+                        break;
+                    }
+                }
+
+                var ready = observe(dir, pending);
+                if (ready.isEmpty()) {
+                    firstReady = 0;
+                    continue;
+                }
+                long now = System.nanoTime();
+                firstReady = firstReady == 0 ? now : firstReady;
+                if (ready.size() < pending.size()
+                        && ready.size() < MAX_BATCH_SIZE
+                        && now - firstReady < MAX_BATCH_WAIT_NANOS) {
+                    continue; // other files are still being copied, wait for them
+                }
+
+                var batch = ready.subList(0, Math.min(ready.size(), MAX_BATCH_SIZE));
+                batch.forEach(file -> pending.remove(file.fileName()));
+                firstReady = 0;
+                try {
+                    var plan = renameBatch(args, renamer, batch, highest);
+                    if (!args.dryRun()) {
+                        highest += batch.size();
+                        renamed += plan.renamedCount();
+                        writeUndoLog(plan, session);
+                    }
+                } catch (RuntimeException | IOException e) {
+                    System.err.printf("%nBatch of %d file skipped: %s%n", batch.size(), e.getMessage());
+                    // a batch interrupted halfway is put back, its files are not retried
+                    RenamerUtility.INSTANCE.recover(dir, true);
+                    batch.forEach(file -> ignored.add(file.fileName()));
+                }
+                if (args.dryRun()) {
+                    batch.forEach(file -> ignored.add(file.fileName()));
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        }
+        return renamed;
+    }
+
+    private void collect(WatchKey key, Path dir, ExtensionMatcher extensions, SequenceNaming sequencedName,
+                         Map<String, Observed> pending, Set<String> ignored) throws IOException {
+        for (var event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                // events were lost, fall back to a full listing once
+                for (var file : RenamerUtility.INSTANCE.scan(dir, extensions).files()) {
+                    addCandidate(file.fileName(), extensions, sequencedName, pending, ignored);
+                }
+                continue;
+            }
+            var name = ((Path) event.context()).getFileName().toString();
+            addCandidate(name, extensions, sequencedName, pending, ignored);
+        }
+    }
+
+    private void addCandidate(String name, ExtensionMatcher extensions, SequenceNaming sequencedName,
+                              Map<String, Observed> pending, Set<String> ignored) {
+        if (!pending.containsKey(name)
+                && !ignored.contains(name)
+                && RenamerUtility.INSTANCE.isAccepted(name, extensions)
+                && sequencedName.sequenceOf(name) < 0) {
+            pending.put(name, null);
+        }
+    }
+
+    /**
+     * Stats the pending files and returns the ones unchanged for the quiet period,
+     * oldest first. Files that disappeared or are not regular files are dropped.
+     */
+    private List<ScannedFile> observe(Path dir, Map<String, Observed> pending) {
+        var ready = new ArrayList<ScannedFile>();
+        long now = System.nanoTime();
+        var iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+            var file = RenamerUtility.INSTANCE.scanFile(dir.resolve(entry.getKey()));
+            if (!file.isRegularFile()) {
+                iterator.remove();
+                continue;
+            }
+            var previous = entry.getValue();
+            if (previous == null
+                    || previous.file().size() != file.size()
+                    || previous.file().lastModified() != file.lastModified()) {
+                entry.setValue(new Observed(file, now));
+            } else if (now - previous.stableSince() >= QUIET_NANOS) {
+                ready.add(file);
+            }
+        }
+        ready.sort(Comparator.comparingLong(ScannedFile::creationTime));
+        return ready;
+    }
+
+    private RenamePlan renameBatch(CliArgs args, Renamer renamer, List<ScannedFile> batch, int highest)
+            throws IOException {
+        var entries = new HashMap<String, ScannedFile>();
+        batch.forEach(file -> entries.put(file.fileName(), file));
+        var snapshot = new DirectorySnapshot(args.dir(), List.copyOf(batch), entries);
+
+        var naming = renamer.naming(args, highest + batch.size());
+        var keys = RenamerUtility.INSTANCE.sortKeys(snapshot, args.orderBy(), args.ioParallelism());
+        var plan = RenamerUtility.INSTANCE.mapSequence(snapshot, keys, highest + 1, naming.nameFunction());
+
+        // only the targets of the batch are probed, not the whole directory
+        for (int i = 0; i < plan.size(); i++) {
+            if (!entries.containsKey(plan.targetName(i)) && Files.exists(plan.target(i))) {
+                entries.put(plan.targetName(i), RenamerUtility.INSTANCE.scanFile(plan.target(i)));
+            }
+        }
+        RenamerUtility.INSTANCE.checkConflicts(plan, snapshot);
+
+        RenamerUtility.INSTANCE.preview(plan, args.preview());
+        RenamerUtility.INSTANCE.renames(plan, args.dryRun(), args.ioParallelism());
+        System.out.println();
+        return plan;
+    }
+
+    /**
+     * Rewrites the undo log with the moves of every batch renamed so far, replacing the
+     * log of the single batch written by the rename.
+     */
+    private void writeUndoLog(RenamePlan plan, List<RenameMove> session) {
+        for (int i = 0; i < plan.size(); i++) {
+            if (!plan.isIdentity(i)) {
+                session.add(new RenameMove(plan.source(i), plan.target(i)));
+            }
+        }
+        try {
+            RenameLog.write(plan.dir(), session);
+        } catch (IOException e) {
+            System.err.printf("Undo log not written: %s%n", e.getMessage());
+        }
+    }
+
+    private record Observed(
+            ScannedFile file,
+            long stableSince
+    ) {
+    }
+}
@@ -8,8 +8,30 @@ public record CliArgs(
         Path dir,
         String template, // optional
         boolean dryRun,
-        String prefix
+        String prefix,
+        boolean recursive,
+        boolean rollback, // roll back an interrupted run instead of completing it
+        int ioParallelism, // max file system operations in flight, 1 = sequential
+        PreviewMode preview,
+        OrderBy orderBy,
+        boolean cache, // metadata cache enabled
+        Path cacheDir, // optional, null keeps the cache inside the directory
+        boolean watch, // keep running and rename new files as they arrive
+        String namePattern, // optional, null uses the template naming
+        Path statsFile, // optional, JSON report of the run
+        DedupeMode dedupe,
+        boolean boundedMemory, // stream the listing and the plan through files instead of the heap
+        boolean assumeYes, // don't ask for confirmation
+        Path target, // optional, null renames in place
+        boolean verify, // compare the checksum of every copy made into the target
+        Path undo // optional, undo log of a run to rename back
 ) {
+    public CliArgs withDir(Path dir) {
+        return new CliArgs(dir, template, dryRun, prefix, recursive, rollback, ioParallelism,
+            preview.forFolder(dir), orderBy, cache, cacheDir, watch, namePattern, statsFile, dedupe, boundedMemory,
+            assumeYes, target, verify, undo);
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -19,6 +41,22 @@ public record CliArgs(
         private String template;
         private boolean dryRun = false;
         private String prefix;
+        private boolean recursive = false;
+        private boolean rollback = false;
+        private int ioParallelism = 1;
+        private PreviewMode preview = PreviewMode.FULL;
+        private OrderBy orderBy = OrderBy.CREATION;
+        private boolean cache = false;
+        private Path cacheDir;
+        private boolean watch = false;
+        private String namePattern;
+        private Path statsFile;
+        private DedupeMode dedupe = DedupeMode.NONE;
+        private boolean boundedMemory = false;
+        private boolean assumeYes = false;
+        private Path target;
+        private boolean verify = false;
+        private Path undo;
 
         public Builder dir(Path dir) {
             this.dir = requireNonNull(dir);
@@ -40,8 +78,91 @@ public record CliArgs(
             return this;
         }
 
+        public Builder recursive(boolean recursive) {
+            this.recursive = recursive;
+            return this;
+        }
+
+        public Builder rollback(boolean rollback) {
+            this.rollback = rollback;
+            return this;
+        }
+
+        public Builder ioParallelism(int ioParallelism) {
+            this.ioParallelism = ioParallelism;
+            return this;
+        }
+
+        public Builder preview(PreviewMode preview) {
+            this.preview = requireNonNull(preview);
+            return this;
+        }
+
+        public Builder orderBy(OrderBy orderBy) {
+            this.orderBy = requireNonNull(orderBy);
+            return this;
+        }
+
+        public Builder cache(boolean cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        public Builder cacheDir(Path cacheDir) {
+            this.cacheDir = requireNonNull(cacheDir);
+            this.cache = true;
+            return this;
+        }
+
+        public Builder watch(boolean watch) {
+            this.watch = watch;
+            return this;
+        }
+
+        public Builder namePattern(String namePattern) {
+            this.namePattern = requireNonNull(namePattern);
+            return this;
+        }
+
+        public Builder statsFile(Path statsFile) {
+            this.statsFile = requireNonNull(statsFile);
+            return this;
+        }
+
+        public Builder dedupe(DedupeMode dedupe) {
+            this.dedupe = requireNonNull(dedupe);
+            return this;
+        }
+
+        public Builder boundedMemory(boolean boundedMemory) {
+            this.boundedMemory = boundedMemory;
+            return this;
+        }
+
+        public Builder assumeYes(boolean assumeYes) {
+            this.assumeYes = assumeYes;
+            return this;
+        }
+
+        public Builder target(Path target) {
+            this.target = target;
+            return this;
+        }
+
+        public Builder verify(boolean verify) {
+            this.verify = verify;
+            return this;
+        }
+
+        public Builder undo(Path undo) {
+            this.undo = undo;
+            return this;
+        }
+
         public CliArgs build() {
-            return new CliArgs(dir, template, dryRun, prefix);
+            return new CliArgs(dir, template, dryRun, prefix, recursive, rollback, ioParallelism, preview, orderBy,
+                cache, cacheDir, watch, namePattern, statsFile, dedupe, boundedMemory, assumeYes,
+                target, verify, undo);
         }
     }
 }
@@ -0,0 +1,20 @@
+package model;
+
+public enum DedupeMode {
+    NONE, // duplicates are renamed like any other file
+    REPORT, // duplicates are listed, then renamed
+    SKIP, // only the oldest copy is renamed, the others keep their name
+    DELETE; // only the oldest copy is kept
+
+    public static DedupeMode parse(String value) {
+        try {
+            var mode = valueOf(value.toUpperCase());
+            if (mode == NONE) {
+                throw new IllegalArgumentException(value);
+            }
+            return mode;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown dedupe mode %s, available: report, skip, delete".formatted(value), e);
+        }
+    }
+}
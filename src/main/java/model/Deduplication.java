@@ -0,0 +1,12 @@
+package model;
+
+import java.util.List;
+
+public record Deduplication(
+        DirectorySnapshot snapshot, // the files to plan the renaming on
+        List<String> deletions // names of the copies to delete once the run is confirmed
+) {
+    public static Deduplication none(DirectorySnapshot snapshot) {
+        return new Deduplication(snapshot, List.of());
+    }
+}
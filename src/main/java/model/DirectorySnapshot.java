@@ -0,0 +1,19 @@
+package model;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+public record DirectorySnapshot(
+        Path dir,
+        List<ScannedFile> files, // accepted regular files, in listing order
+        Map<String, ScannedFile> entries // every entry of the directory by file name
+) {
+    public boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    public ScannedFile entry(String fileName) {
+        return entries.get(fileName);
+    }
+}
@@ -0,0 +1,76 @@
+package model;
+
+import java.util.List;
+
+/**
+ * Precompiled matcher of file extensions, ignoring case.
+ * <p>
+ * Extensions are indexed by their folded hash, together with the distinct extension lengths:
+ * a file name is matched by hashing its suffix of each length in place, so no lower case
+ * copy of the name is made and the cost doesn't grow with the number of extensions.
+ */
+public final class ExtensionMatcher {
+    public static final String ANY = "*";
+
+    private final List<String> extensions;
+    private final boolean any;
+    private final String[] table; // open addressing by folded hash, null for an empty slot
+    private final int[] lengths; // distinct extension lengths, ascending
+
+    private ExtensionMatcher(List<String> extensions) {
+        this.extensions = List.copyOf(extensions);
+        this.any = extensions.contains(ANY) || extensions.contains("");
+        this.table = new String[Integer.highestOneBit(Math.max(1, extensions.size()) * 2) << 1];
+        int mask = table.length - 1;
+        for (var extension : extensions) {
+            int slot = NameIndex.foldedHash(extension) & mask;
+            while (table[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = extension;
+        }
+        this.lengths = extensions.stream().mapToInt(String::length).filter(length -> length > 0).distinct().sorted().toArray();
+    }
+
+    /**
+     * @param extensions the accepted extensions including the dot (ex. ".jpg"),
+     *                   {@value #ANY} accepts every file
+     */
+    public static ExtensionMatcher of(List<String> extensions) {
+        return new ExtensionMatcher(extensions);
+    }
+
+    /**
+     * @param fileName a file name
+     * @return true if the name ends with one of the extensions, ignoring case
+     */
+    public boolean matches(String fileName) {
+        if (any) {
+            return true;
+        }
+        int length = fileName.length();
+        int mask = table.length - 1;
+        for (int suffixLength : lengths) {
+            if (suffixLength > length) {
+                return false;
+            }
+            int from = length - suffixLength;
+            for (int slot = NameIndex.foldedHash(fileName, from, length) & mask; table[slot] != null; slot = (slot + 1) & mask) {
+                var extension = table[slot];
+                if (extension.length() == suffixLength && fileName.regionMatches(true, from, extension, 0, suffixLength)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public List<String> extensions() {
+        return extensions;
+    }
+
+    @Override
+    public String toString() {
+        return any ? "[" + ANY + "]" : extensions.toString();
+    }
+}
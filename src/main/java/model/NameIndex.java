@@ -0,0 +1,92 @@
+package model;
+
+/**
+ * Open addressing hash index of file names, exact or ignoring case.
+ * <p>
+ * Hashing folds the case one char at a time, like {@link String#equalsIgnoreCase(String)},
+ * so lookups ignoring case don't allocate a lower case copy of every name.
+ */
+public final class NameIndex {
+    private final String[] names;
+    private final boolean ignoreCase;
+    private final int[] table; // name index + 1, 0 for an empty slot
+
+    private NameIndex(String[] names, boolean ignoreCase) {
+        this.names = names;
+        this.ignoreCase = ignoreCase;
+        this.table = new int[Integer.highestOneBit(Math.max(1, names.length) * 2) << 1];
+        int mask = table.length - 1;
+        for (int i = 0; i < names.length; i++) {
+            int slot = hash(names[i]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+    }
+
+    /**
+     * @param names      the names to index, not copied
+     * @param ignoreCase true to match names ignoring case
+     */
+    public static NameIndex of(String[] names, boolean ignoreCase) {
+        return new NameIndex(names, ignoreCase);
+    }
+
+    /**
+     * @param name a file name
+     * @return the index of the first matching name, -1 if none
+     */
+    public int indexOf(String name) {
+        int mask = table.length - 1;
+        for (int slot = hash(name) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            var candidate = names[table[slot] - 1];
+            if (ignoreCase ? candidate.equalsIgnoreCase(name) : candidate.equals(name)) {
+                return table[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Only available on an index ignoring case.
+     *
+     * @return the index of a name matching ignoring case but not exactly, -1 if none
+     */
+    public int indexOfOtherCase(String name) {
+        if (!ignoreCase) {
+            throw new IllegalStateException("Index is case sensitive");
+        }
+        int mask = table.length - 1;
+        for (int slot = foldedHash(name) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            var candidate = names[table[slot] - 1];
+            if (candidate.equalsIgnoreCase(name) && !candidate.equals(name)) {
+                return table[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    private int hash(String name) {
+        return ignoreCase ? foldedHash(name) : name.hashCode();
+    }
+
+    /**
+     * Hash code of a name with its case folded, equal for names that are
+     * {@link String#equalsIgnoreCase(String) equal ignoring case}.
+     */
+    public static int foldedHash(CharSequence name) {
+        return foldedHash(name, 0, name.length());
+    }
+
+    /**
+     * Same as {@link #foldedHash(CharSequence)} for the chars in [from, to) of a name.
+     */
+    public static int foldedHash(CharSequence name, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(name.charAt(i)));
+        }
+        return hash;
+    }
+}
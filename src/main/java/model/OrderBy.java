@@ -0,0 +1,15 @@
+package model;
+
+public enum OrderBy {
+    CREATION, // file system creation time
+    EXIF, // EXIF DateTimeOriginal, file system creation time when missing
+    DIRECTORY; // listing order, no sort: files are renamed while the folder is scanned
+
+    public static OrderBy parse(String value) {
+        try {
+            return valueOf(value.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown order %s, available: creation, exif, directory".formatted(value), e);
+        }
+    }
+}
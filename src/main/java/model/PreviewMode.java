@@ -0,0 +1,61 @@
+package model;
+
+import java.nio.file.Path;
+
+public record PreviewMode(
+        Kind kind,
+        int limit, // lines printed by HEAD
+        Path file // destination of FILE, .json for JSON, TSV otherwise
+) {
+    public static final PreviewMode FULL = new PreviewMode(Kind.FULL, 0, null);
+
+    public enum Kind {
+        FULL,
+        HEAD,
+        SUMMARY,
+        FILE
+    }
+
+    /**
+     * Parses {@code full}, {@code head:N}, {@code summary} or {@code file:<path>}.
+     *
+     * @throws IllegalArgumentException if the value is not a valid preview mode
+     */
+    public static PreviewMode parse(String value) {
+        var separator = value.indexOf(':');
+        var kind = separator >= 0 ? value.substring(0, separator) : value;
+        var argument = separator >= 0 ? value.substring(separator + 1) : "";
+        try {
+            return switch (kind.toLowerCase()) {
+                case "full" -> FULL;
+                case "summary" -> new PreviewMode(Kind.SUMMARY, 0, null);
+                case "head" -> new PreviewMode(Kind.HEAD, Integer.parseUnsignedInt(argument), null);
+                case "file" -> {
+                    if (argument.isBlank()) {
+                        throw new IllegalArgumentException("file preview requires a path");
+                    }
+                    yield new PreviewMode(Kind.FILE, 0, Path.of(argument));
+                }
+                default -> throw new IllegalArgumentException("unknown preview mode " + kind);
+            };
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("head preview requires a number of lines (ex. head:20)", e);
+        }
+    }
+
+    /**
+     * @return the mode to use for one of the folders of a recursive run:
+     *         a FILE preview is written to a file per folder, the others are unchanged
+     */
+    public PreviewMode forFolder(Path folder) {
+        if (kind != Kind.FILE) {
+            return this;
+        }
+        var fileName = file.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        var folderFileName = dot > 0
+            ? fileName.substring(0, dot) + "-" + folder.getFileName() + fileName.substring(dot)
+            : fileName + "-" + folder.getFileName();
+        return new PreviewMode(kind, limit, file.resolveSibling(folderFileName));
+    }
+}
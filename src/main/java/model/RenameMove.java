@@ -0,0 +1,9 @@
+package model;
+
+import java.nio.file.Path;
+
+public record RenameMove(
+        Path source,
+        Path target
+) {
+}
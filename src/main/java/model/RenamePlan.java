@@ -0,0 +1,239 @@
+package model;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Compact rename plan of files living in a single directory.
+ * <p>
+ * Entries are kept in plan (sequence) order as parallel primitive arrays: the index of the
+ * source name in a shared name table, the sort key, the sequence number and the UTF-8 bytes
+ * of the target name in a single pool. Paths are only built on demand, relative to {@link #dir()}.
+ */
+public final class RenamePlan {
+    private final Path dir;
+    private final String[] names;
+    private final int[] sources;
+    private final long[] keys;
+    private final int[] sequences;
+    private final byte[] targetPool;
+    private final int[] targetOffsets; // size + 1 entries, target i is [offsets[i], offsets[i + 1])
+    private boolean ignoreCase = false;
+    private NameIndex sourceIndex; // source name -> position, built lazily
+
+    private RenamePlan(Path dir, String[] names, int[] sources, long[] keys, int[] sequences,
+                       byte[] targetPool, int[] targetOffsets) {
+        this.dir = dir;
+        this.names = names;
+        this.sources = sources;
+        this.keys = keys;
+        this.sequences = sequences;
+        this.targetPool = targetPool;
+        this.targetOffsets = targetOffsets;
+    }
+
+    public static Builder builder(Path dir, String[] names, int capacity) {
+        return new Builder(dir, names, capacity);
+    }
+
+    /**
+     * Builds a plan from a map of original file path -> new file path, all in the same directory.
+     * Keys and sequence numbers follow the map order, starting from 0.
+     *
+     * @throws IllegalArgumentException if the files are not all in the same directory
+     */
+    public static RenamePlan of(Map<Path, Path> oldNameToNewNameMap) {
+        var names = new String[oldNameToNewNameMap.size()];
+        Path dir = null;
+        int i = 0;
+        for (var oldPath : oldNameToNewNameMap.keySet()) {
+            if (dir == null) {
+                dir = oldPath.getParent();
+            } else if (!dir.equals(oldPath.getParent())) {
+                throw new IllegalArgumentException("Files must be in the same directory: %s".formatted(oldPath));
+            }
+            names[i++] = oldPath.getFileName().toString();
+        }
+
+        var builder = builder(dir, names, names.length);
+        i = 0;
+        for (var newPath : oldNameToNewNameMap.values()) {
+            if (!newPath.getParent().equals(dir)) {
+                throw new IllegalArgumentException("Files must be in the same directory: %s".formatted(newPath));
+            }
+            builder.add(i, i, i, newPath.getFileName().toString());
+            i++;
+        }
+        return builder.build();
+    }
+
+    public Path dir() {
+        return dir;
+    }
+
+    public int size() {
+        return sources.length;
+    }
+
+    public boolean isEmpty() {
+        return sources.length == 0;
+    }
+
+    public String sourceName(int position) {
+        return names[sources[position]];
+    }
+
+    public String targetName(int position) {
+        int from = targetOffsets[position];
+        return new String(targetPool, from, targetOffsets[position + 1] - from, StandardCharsets.UTF_8);
+    }
+
+    public long key(int position) {
+        return keys[position];
+    }
+
+    public int sequence(int position) {
+        return sequences[position];
+    }
+
+    public Path source(int position) {
+        return dir.resolve(sourceName(position));
+    }
+
+    public Path target(int position) {
+        return dir.resolve(targetName(position));
+    }
+
+    public boolean isIdentity(int position) {
+        var source = sourceName(position).getBytes(StandardCharsets.UTF_8);
+        int from = targetOffsets[position];
+        return Arrays.equals(source, 0, source.length, targetPool, from, targetOffsets[position + 1]);
+    }
+
+    /**
+     * @return the number of files of the plan that get a new name
+     */
+    public int renamedCount() {
+        int renamed = 0;
+        for (int i = 0; i < sources.length; i++) {
+            if (!isIdentity(i)) {
+                renamed++;
+            }
+        }
+        return renamed;
+    }
+
+    /**
+     * Declares that the directory is on a case-insensitive file system: from now on sources
+     * are looked up ignoring case, so a target differing from a source only by case is seen
+     * as occupied until that source moves (and a case-only rename goes through a temporary name).
+     */
+    public void ignoreCase() {
+        if (!ignoreCase) {
+            ignoreCase = true;
+            sourceIndex = null;
+        }
+    }
+
+    public boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    /**
+     * @param name a file name
+     * @return the position of the entry whose source has the given name
+     *         (ignoring case after {@link #ignoreCase()}), -1 if none
+     */
+    public int positionOfSource(String name) {
+        if (sourceIndex == null) {
+            var sourceNames = new String[sources.length];
+            for (int position = 0; position < sources.length; position++) {
+                sourceNames[position] = sourceName(position);
+            }
+            sourceIndex = NameIndex.of(sourceNames, ignoreCase);
+        }
+        return sourceIndex.indexOf(name);
+    }
+
+    public static final class Builder {
+        private final Path dir;
+        private final String[] names;
+        private final int[] sources;
+        private final long[] keys;
+        private final int[] sequences;
+        private final int[] targetOffsets;
+        private byte[] targetPool;
+        private int size = 0;
+
+        private Builder(Path dir, String[] names, int capacity) {
+            this.dir = dir;
+            this.names = names;
+            this.sources = new int[capacity];
+            this.keys = new long[capacity];
+            this.sequences = new int[capacity];
+            this.targetOffsets = new int[capacity + 1];
+            this.targetPool = new byte[Math.max(16, capacity * 16)];
+        }
+
+        /**
+         * Appends the next entry of the plan.
+         *
+         * @param source     index of the source name in the name table
+         * @param key        sort key of the source
+         * @param sequence   sequence number given to the source
+         * @param targetName new file name
+         */
+        public Builder add(int source, long key, int sequence, CharSequence targetName) {
+            int from = targetOffsets[size];
+            int length = appendAscii(targetName, from);
+            if (length < 0) {
+                var bytes = targetName.toString().getBytes(StandardCharsets.UTF_8);
+                ensureCapacity(from + bytes.length);
+                System.arraycopy(bytes, 0, targetPool, from, bytes.length);
+                length = bytes.length;
+            }
+            sources[size] = source;
+            keys[size] = key;
+            sequences[size] = sequence;
+            targetOffsets[++size] = from + length;
+            return this;
+        }
+
+        /**
+         * Copies an all ASCII name straight into the pool, without encoding it to a new array.
+         *
+         * @return the number of bytes written, -1 if the name is not ASCII
+         */
+        private int appendAscii(CharSequence name, int from) {
+            int length = name.length();
+            ensureCapacity(from + length);
+            for (int i = 0; i < length; i++) {
+                char c = name.charAt(i);
+                if (c >= 0x80) {
+                    return -1;
+                }
+                targetPool[from + i] = (byte) c;
+            }
+            return length;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > targetPool.length) {
+                targetPool = Arrays.copyOf(targetPool, Math.max(targetPool.length * 2, capacity));
+            }
+        }
+
+        public RenamePlan build() {
+            return new RenamePlan(
+                dir,
+                names,
+                Arrays.copyOf(sources, size),
+                Arrays.copyOf(keys, size),
+                Arrays.copyOf(sequences, size),
+                Arrays.copyOf(targetPool, targetOffsets[size]),
+                Arrays.copyOf(targetOffsets, size + 1));
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package model;
+
+import java.nio.file.Path;
+
+public record ScannedFile(
+        Path path,
+        Type type,
+        long size,
+        long creationTime, // epoch nanoseconds, 0 when not available
+        long lastModified, // epoch nanoseconds
+        Object fileKey // optional, null when the file system doesn't expose it
+) {
+    public enum Type {
+        REGULAR_FILE,
+        DIRECTORY,
+        OTHER
+    }
+
+    public String fileName() {
+        return path.getFileName().toString();
+    }
+
+    public boolean isRegularFile() {
+        return type == Type.REGULAR_FILE;
+    }
+}
@@ -0,0 +1,15 @@
+package model;
+
+import java.nio.file.Path;
+import java.util.List;
+
+public record ServiceArgs(
+        boolean client, // true: send the job to a running server, false: start the server
+        Path socket,
+        int maxJobs, // server only, jobs running at the same time
+        List<String> jobArgs // client only, the usual command line
+) {
+    public static Path defaultSocket() {
+        return Path.of(System.getProperty("java.io.tmpdir"), "bulk-rename.sock");
+    }
+}
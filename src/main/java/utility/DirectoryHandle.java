@@ -0,0 +1,109 @@
+package utility;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SecureDirectoryStream;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A directory opened once, whose entries are listed, read and moved relative to the open handle
+ * through a {@link SecureDirectoryStream} where the platform provides one: the kernel doesn't
+ * resolve the whole path again for every operation, and a directory swapped while a batch runs
+ * can't redirect it. Elsewhere every operation falls back to the absolute path of the entry.
+ * <p>
+ * Entries are given as paths inside the directory, only their file name is used.
+ * Safe for concurrent use, except {@link #entries()} which can be iterated once.
+ */
+public final class DirectoryHandle implements AutoCloseable {
+    private final Path dir;
+    private final DirectoryStream<Path> stream;
+    private final SecureDirectoryStream<Path> secure; // null when not supported
+
+    private DirectoryHandle(Path dir, DirectoryStream<Path> stream) {
+        this.dir = dir;
+        this.stream = stream;
+        this.secure = stream instanceof SecureDirectoryStream<Path> secureStream ? secureStream : null;
+    }
+
+    /**
+     * @param dir the directory to open
+     * @throws IOException if the directory can't be opened
+     */
+    public static DirectoryHandle open(Path dir) throws IOException {
+        var handle = new DirectoryHandle(dir, Files.newDirectoryStream(dir));
+        if (handle.secure == null) {
+            RunStats.INSTANCE.fallback("absolutePathOperations", 1);
+        }
+        return handle;
+    }
+
+    public Path dir() {
+        return dir;
+    }
+
+    public boolean isSecure() {
+        return secure != null;
+    }
+
+    /**
+     * @return the entries of the directory, can be iterated only once
+     */
+    public Iterable<Path> entries() {
+        return stream;
+    }
+
+    /**
+     * Reads the attributes of an entry, following symbolic links.
+     */
+    public BasicFileAttributes readAttributes(Path entry) throws IOException {
+        if (secure == null) {
+            return Files.readAttributes(entry, BasicFileAttributes.class);
+        }
+        return secure.getFileAttributeView(entry.getFileName(), BasicFileAttributeView.class).readAttributes();
+    }
+
+    /**
+     * @return true if the entry exists, without following symbolic links
+     */
+    public boolean exists(Path entry) throws IOException {
+        if (secure == null) {
+            return Files.exists(entry, LinkOption.NOFOLLOW_LINKS);
+        }
+        try {
+            secure.getFileAttributeView(entry.getFileName(), BasicFileAttributeView.class, LinkOption.NOFOLLOW_LINKS)
+                .readAttributes();
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Renames an entry atomically. Like {@link Files#move} without REPLACE_EXISTING, an existing
+     * target is never replaced (the relative rename alone would replace it).
+     *
+     * @throws FileAlreadyExistsException if the target exists
+     */
+    public void move(Path source, Path target) throws IOException {
+        if (secure == null) {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        }
+        if (exists(target)) {
+            throw new FileAlreadyExistsException(target.toString());
+        }
+        secure.move(source.getFileName(), secure, target.getFileName());
+    }
+
+    @Override
+    public void close() throws IOException {
+        stream.close();
+    }
+}
@@ -0,0 +1,226 @@
+package utility;
+
+import model.ScannedFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+public enum DuplicateFinder {
+    INSTANCE;
+
+    private static final int EDGE_SIZE = 64 * 1024;
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Finds the groups of byte-identical files, narrowing the candidates in stages so that
+     * folders without duplicates cost almost nothing:
+     * 0. entries of the same file (hard links, symbolic links followed by the scan) are
+     *    merged by file key: they are one file, not copies, only the first is compared
+     * 1. files are grouped by size (from the scan, no I/O), unique sizes are dropped
+     * 2. the remaining files are hashed on their first and last 64KB
+     * 3. files larger than 128KB still matching are hashed entirely
+     * Hashes (SHA-256) are computed on virtual threads with positioned {@link FileChannel} reads.
+     * Empty and unreadable files are never reported. Where the file system has no file keys,
+     * entries of the same file are told apart with {@link Files#isSameFile} in the final groups.
+     *
+     * @param files         the files to compare
+     * @param ioParallelism maximum number of reads in flight requested by the user
+     * @return the groups of identical files, each one ordered by creation time (oldest first)
+     * @throws IOException if an I/O error occurs
+     */
+    public List<List<ScannedFile>> find(List<ScannedFile> files, int ioParallelism) throws IOException {
+        var bySize = new LinkedHashMap<Long, List<ScannedFile>>();
+        var fileKeys = new HashSet<>();
+        for (var file : files) {
+            if (file.size() > 0 && (file.fileKey() == null || fileKeys.add(file.fileKey()))) {
+                bySize.computeIfAbsent(file.size(), size -> new ArrayList<>(2)).add(file);
+            }
+        }
+        var candidates = new ArrayList<List<ScannedFile>>();
+        for (var group : bySize.values()) {
+            if (group.size() > 1) {
+                candidates.add(group);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return List.of();
+        }
+
+        int parallelism = Math.max(ioParallelism, Runtime.getRuntime().availableProcessors());
+        var edgeMatches = refine(candidates, parallelism, this::edgeHash);
+
+        var groups = new ArrayList<List<ScannedFile>>();
+        var fullCandidates = new ArrayList<List<ScannedFile>>();
+        for (var group : edgeMatches) {
+            // up to 128KB the edges cover the whole file
+            (group.getFirst().size() > 2L * EDGE_SIZE ? fullCandidates : groups).add(group);
+        }
+        groups.addAll(refine(fullCandidates, parallelism, this::fullHash));
+
+        var distinct = new ArrayList<List<ScannedFile>>(groups.size());
+        for (var group : groups) {
+            var sameContent = distinctFiles(group);
+            if (sameContent.size() > 1) {
+                sameContent.sort(Comparator.comparingLong(ScannedFile::creationTime));
+                distinct.add(sameContent);
+            }
+        }
+        return distinct;
+    }
+
+    /**
+     * Drops the entries of a group that are the same file as an earlier one, for the files
+     * the scan found no file key for.
+     */
+    private List<ScannedFile> distinctFiles(List<ScannedFile> group) throws IOException {
+        var files = new ArrayList<ScannedFile>(group.size());
+        for (var file : group) {
+            boolean same = false;
+            if (file.fileKey() == null) {
+                for (var kept : files) {
+                    if (Files.isSameFile(kept.path(), file.path())) {
+                        same = true;
+                        break;
+                    }
+                }
+            }
+            if (!same) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Splits every group by the hash of its files, keeping the sub-groups of two files or more.
+     */
+    private List<List<ScannedFile>> refine(
+            List<List<ScannedFile>> groups, int parallelism, ParallelIo.IoFunction<ScannedFile, ByteBuffer> hash)
+            throws IOException {
+        if (groups.isEmpty()) {
+            return List.of();
+        }
+        var files = new ArrayList<ScannedFile>();
+        groups.forEach(files::addAll);
+        var hashes = ParallelIo.INSTANCE.map(files, parallelism, hash);
+
+        var refined = new ArrayList<List<ScannedFile>>();
+        int i = 0;
+        for (var group : groups) {
+            var byHash = new HashMap<ByteBuffer, List<ScannedFile>>();
+            var ordered = new ArrayList<List<ScannedFile>>();
+            for (var file : group) {
+                var fileHash = hashes.get(i++);
+                if (fileHash == null) {
+                    continue;
+                }
+                byHash.computeIfAbsent(fileHash, key -> {
+                    var sameHash = new ArrayList<ScannedFile>(2);
+                    ordered.add(sameHash);
+                    return sameHash;
+                }).add(file);
+            }
+            for (var sameHash : ordered) {
+                if (sameHash.size() > 1) {
+                    refined.add(sameHash);
+                }
+            }
+        }
+        return refined;
+    }
+
+    /**
+     * @return the hash of the first and last 64KB of the file, null if it can't be read
+     */
+    private ByteBuffer edgeHash(ScannedFile file) {
+        long start = System.nanoTime();
+        var digest = sha256();
+        var buffer = ByteBuffer.allocate(EDGE_SIZE);
+        try (var channel = FileChannel.open(file.path(), StandardOpenOption.READ)) {
+            long size = file.size();
+            update(digest, channel, buffer, 0, Math.min(size, EDGE_SIZE));
+            if (size > EDGE_SIZE) {
+                long tailStart = Math.max(EDGE_SIZE, size - EDGE_SIZE);
+                update(digest, channel, buffer, tailStart, size);
+            }
+            return ByteBuffer.wrap(digest.digest());
+        } catch (IOException e) {
+            RunStats.INSTANCE.fallback("dedupeUnreadable", 1);
+            return null;
+        } finally {
+            RunStats.INSTANCE.operation("dedupeEdgeHash", start);
+        }
+    }
+
+    /**
+     * @return the hash of the whole file, null if it can't be read
+     */
+    private ByteBuffer fullHash(ScannedFile file) {
+        long start = System.nanoTime();
+        var digest = sha256();
+        var buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        try (var channel = FileChannel.open(file.path(), StandardOpenOption.READ)) {
+            update(digest, channel, buffer, 0, file.size());
+            return ByteBuffer.wrap(digest.digest());
+        } catch (IOException e) {
+            RunStats.INSTANCE.fallback("dedupeUnreadable", 1);
+            return null;
+        } finally {
+            RunStats.INSTANCE.operation("dedupeFullHash", start);
+        }
+    }
+
+    /**
+     * @return the SHA-256 hash of the whole file
+     * @throws IOException if the file can't be read
+     */
+    public byte[] hash(Path file) throws IOException {
+        var digest = sha256();
+        var buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            update(digest, channel, buffer, 0, channel.size());
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Hashes the bytes in [from, to) of the channel, with positioned reads.
+     *
+     * @throws IOException if the file is shorter than expected (changed since the scan)
+     */
+    private void update(MessageDigest digest, FileChannel channel, ByteBuffer buffer, long from, long to)
+            throws IOException {
+        long position = from;
+        while (position < to) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), to - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("File changed while reading");
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+        }
+    }
+
+    private MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
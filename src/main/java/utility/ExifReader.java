@@ -0,0 +1,199 @@
+package utility;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Reads the EXIF DateTimeOriginal of a JPEG file with a few small positioned reads:
+ * only the marker headers up to the APP1/EXIF segment and that segment itself are read,
+ * never the image data.
+ */
+public enum ExifReader {
+    INSTANCE;
+
+    public static final long NOT_AVAILABLE = Long.MIN_VALUE;
+
+    private static final int APP1 = 0xE1;
+    private static final int SOS = 0xDA;
+    private static final int EOI = 0xD9;
+    private static final int MAX_SEGMENTS = 32;
+    private static final int TAG_EXIF_IFD = 0x8769;
+    private static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    private static final int TAG_SUB_SEC_TIME_ORIGINAL = 0x9291;
+    private static final int TAG_OFFSET_TIME_ORIGINAL = 0x9011;
+    private static final DateTimeFormatter EXIF_DATE_TIME = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
+
+    /**
+     * @param file a JPEG file
+     * @return DateTimeOriginal (plus SubSecTimeOriginal) as epoch nanoseconds, or {@link #NOT_AVAILABLE}
+     *         when the file has no readable EXIF date. The camera local time is placed with
+     *         OffsetTimeOriginal when present, in the system zone otherwise, so that it compares
+     *         with the creation time of the files without EXIF
+     * @throws IOException if the file can't be read
+     */
+    public long dateTimeOriginal(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var app1 = findExifSegment(channel);
+            return app1 != null ? parseTiff(app1) : NOT_AVAILABLE;
+        } catch (IndexOutOfBoundsException | IllegalArgumentException | NegativeArraySizeException e) {
+            // malformed header
+            return NOT_AVAILABLE;
+        }
+    }
+
+    private ByteBuffer findExifSegment(FileChannel channel) throws IOException {
+        var header = ByteBuffer.allocate(4);
+        if (readFully(channel, header, 0) < 2 || (header.get(0) & 0xFF) != 0xFF || (header.get(1) & 0xFF) != 0xD8) {
+            return null; // not a JPEG
+        }
+
+        long position = 2;
+        for (int segment = 0; segment < MAX_SEGMENTS; segment++) {
+            header.clear();
+            if (readFully(channel, header, position) < 4 || (header.get(0) & 0xFF) != 0xFF) {
+                return null;
+            }
+            int marker = header.get(1) & 0xFF;
+            int length = header.getShort(2) & 0xFFFF; // includes the two length bytes
+            if (marker == SOS || marker == EOI || length < 2) {
+                return null;
+            }
+            if (marker == APP1) {
+                var segmentData = ByteBuffer.allocate(length - 2);
+                readFully(channel, segmentData, position + 4);
+                if (isExif(segmentData)) {
+                    return segmentData.position(6).slice();
+                }
+            }
+            position += 2 + length;
+        }
+        return null;
+    }
+
+    private boolean isExif(ByteBuffer segment) {
+        var signature = "Exif\0\0".getBytes(StandardCharsets.US_ASCII);
+        if (segment.limit() < signature.length + 8) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if (segment.get(i) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long parseTiff(ByteBuffer tiff) {
+        tiff.order(tiff.get(0) == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        if ((tiff.getShort(2) & 0xFFFF) != 42) {
+            return NOT_AVAILABLE;
+        }
+        int exifIfd = (int) findTag(tiff, tiff.getInt(4), TAG_EXIF_IFD);
+        if (exifIfd <= 0) {
+            return NOT_AVAILABLE;
+        }
+
+        var dateTime = readAscii(tiff, exifIfd, TAG_DATE_TIME_ORIGINAL);
+        if (dateTime == null) {
+            return NOT_AVAILABLE;
+        }
+        try {
+            var seconds = LocalDateTime.parse(dateTime, EXIF_DATE_TIME)
+                .atZone(zoneOf(readAscii(tiff, exifIfd, TAG_OFFSET_TIME_ORIGINAL)))
+                .toEpochSecond();
+            return seconds * 1_000_000_000L + subSecNanos(readAscii(tiff, exifIfd, TAG_SUB_SEC_TIME_ORIGINAL));
+        } catch (DateTimeParseException e) {
+            return NOT_AVAILABLE; // ex. "0000:00:00 00:00:00" written by some cameras
+        }
+    }
+
+    /**
+     * @return offset of the entry with the given tag in the IFD, -1 if missing
+     */
+    private int findEntry(ByteBuffer tiff, int ifd, int tag) {
+        int count = tiff.getShort(ifd) & 0xFFFF;
+        for (int i = 0; i < count; i++) {
+            int entry = ifd + 2 + i * 12;
+            if ((tiff.getShort(entry) & 0xFFFF) == tag) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    private long findTag(ByteBuffer tiff, int ifd, int tag) {
+        int entry = findEntry(tiff, ifd, tag);
+        return entry < 0 ? -1 : tiff.getInt(entry + 8) & 0xFFFFFFFFL;
+    }
+
+    private String readAscii(ByteBuffer tiff, int ifd, int tag) {
+        int entry = findEntry(tiff, ifd, tag);
+        if (entry < 0) {
+            return null;
+        }
+        int count = tiff.getInt(entry + 4);
+        // values up to 4 bytes are stored inline in the entry
+        int offset = count <= 4 ? entry + 8 : tiff.getInt(entry + 8);
+        if (count < 0 || count > tiff.limit() || offset < 0 || offset > tiff.limit() - count) {
+            return null; // malformed count, checked before allocating it
+        }
+        var bytes = new byte[count];
+        tiff.get(offset, bytes);
+        int length = 0;
+        while (length < count && bytes[length] != 0) {
+            length++;
+        }
+        return new String(bytes, 0, length, StandardCharsets.US_ASCII).trim();
+    }
+
+    /**
+     * @param offsetTime OffsetTimeOriginal, ex. "+02:00"
+     */
+    private ZoneId zoneOf(String offsetTime) {
+        if (offsetTime != null && !offsetTime.isEmpty()) {
+            try {
+                return ZoneOffset.of(offsetTime);
+            } catch (DateTimeException e) {
+                // ex. "   :  " written by some cameras
+            }
+        }
+        return ZoneId.systemDefault();
+    }
+
+    private long subSecNanos(String subSec) {
+        if (subSec == null || subSec.isEmpty()) {
+            return 0;
+        }
+        long nanos = 0;
+        for (int i = 0; i < 9; i++) {
+            nanos *= 10;
+            if (i < subSec.length() && Character.isDigit(subSec.charAt(i))) {
+                nanos += subSec.charAt(i) - '0';
+            }
+        }
+        return nanos;
+    }
+
+    private int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,157 @@
+package utility;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts (key, name) records by key with bounded memory: records are buffered in runs,
+ * every full run is sorted and spilled to a file, then the runs are merged as a stream.
+ * Equal keys keep the insertion order, like {@link RenamerUtility#mapSequence}.
+ * Memory is one run plus one read buffer per spilled run, whatever the number of records.
+ */
+public final class ExternalSort implements AutoCloseable {
+    public static final int DEFAULT_RUN_SIZE = 1 << 16;
+
+    @FunctionalInterface
+    public interface RecordConsumer {
+        void accept(long key, String name) throws IOException;
+    }
+
+    private final Path spillDir;
+    private final int runSize;
+    private final List<Path> runs = new ArrayList<>();
+    private long[] keys;
+    private String[] names;
+    private int buffered = 0;
+    private long size = 0;
+
+    /**
+     * @param spillDir directory the runs are written to, it must exist
+     * @param runSize  maximum number of records kept in memory
+     */
+    public ExternalSort(Path spillDir, int runSize) {
+        this.spillDir = spillDir;
+        this.runSize = runSize;
+        this.keys = new long[Math.min(runSize, 1024)];
+        this.names = new String[keys.length];
+    }
+
+    public void add(long key, String name) throws IOException {
+        if (buffered == runSize) {
+            spill();
+        }
+        if (buffered == keys.length) {
+            keys = Arrays.copyOf(keys, Math.min(runSize, keys.length * 2));
+            names = Arrays.copyOf(names, keys.length);
+        }
+        keys[buffered] = key;
+        names[buffered] = name;
+        buffered++;
+        size++;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Passes every record to the consumer, sorted by key. Can be called only once.
+     */
+    public void forEachSorted(RecordConsumer consumer) throws IOException {
+        if (runs.isEmpty()) {
+            // everything fits in memory, no file involved
+            var order = RenamerUtility.INSTANCE.sortedOrder(Arrays.copyOf(keys, buffered));
+            for (var index : order) {
+                consumer.accept(keys[index], names[index]);
+            }
+            return;
+        }
+        if (buffered > 0) {
+            spill();
+        }
+        keys = null;
+        names = null;
+
+        // ties go to the earlier run, which holds the earlier records
+        var heads = new PriorityQueue<RunReader>((a, b) -> a.key != b.key
+            ? Long.compare(a.key, b.key)
+            : Integer.compare(a.run, b.run));
+        var readers = new ArrayList<RunReader>(runs.size());
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                var reader = new RunReader(runs.get(i), i);
+                readers.add(reader);
+                if (reader.next()) {
+                    heads.add(reader);
+                }
+            }
+            while (!heads.isEmpty()) {
+                var head = heads.poll();
+                consumer.accept(head.key, head.name);
+                if (head.next()) {
+                    heads.add(head);
+                }
+            }
+        } finally {
+            for (var reader : readers) {
+                reader.in.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (var run : runs) {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+    }
+
+    private void spill() throws IOException {
+        long start = System.nanoTime();
+        var run = spillDir.resolve("run-%d".formatted(runs.size()));
+        var order = RenamerUtility.INSTANCE.sortedOrder(Arrays.copyOf(keys, buffered));
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+            for (var index : order) {
+                out.writeLong(keys[index]);
+                out.writeUTF(names[index]);
+            }
+        }
+        runs.add(run);
+        Arrays.fill(names, 0, buffered, null);
+        buffered = 0;
+        RunStats.INSTANCE.operation("spillRun", start);
+    }
+
+    private static final class RunReader {
+        private final DataInputStream in;
+        private final int run;
+        private long key;
+        private String name;
+
+        private RunReader(Path file, int run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 14));
+            this.run = run;
+        }
+
+        private boolean next() throws IOException {
+            try {
+                key = in.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            name = in.readUTF();
+            return true;
+        }
+    }
+}
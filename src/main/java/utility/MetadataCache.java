@@ -0,0 +1,147 @@
+package utility;
+
+import model.DirectorySnapshot;
+import model.ScannedFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * On-disk cache of the metadata extracted from the files of a directory (the EXIF sort key),
+ * so that unchanged files are not read again on the next run.
+ * <p>
+ * Entries are keyed by file key (inode) when the file system exposes it, by name otherwise,
+ * and are valid only while size and last modified time are unchanged. On save the entries
+ * of files no longer in the directory are evicted, and at most {@link #MAX_ENTRIES} are kept.
+ */
+public final class MetadataCache {
+    public static final String FILE_NAME = ".bulk-rename.cache";
+    public static final long MISSING = Long.MIN_VALUE + 1;
+    public static final int MAX_ENTRIES = 2_000_000;
+
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x4252434D; // "BRCM"
+    private static final byte VERSION = 2; // 2: EXIF keys are instants, no longer local times read as UTC
+
+    private final Path file;
+    private final Map<String, Entry> entries;
+    private boolean dirty = false;
+
+    private MetadataCache(Path file, Map<String, Entry> entries) {
+        this.file = file;
+        this.entries = entries;
+    }
+
+    /**
+     * @param dir      the directory the cache is about
+     * @param cacheDir directory holding the caches, null to keep the cache inside {@code dir}
+     * @return the cache file of the directory
+     */
+    public static Path fileFor(Path dir, Path cacheDir) {
+        if (cacheDir == null) {
+            return dir.resolve(FILE_NAME);
+        }
+        var absolute = dir.toAbsolutePath().normalize();
+        return cacheDir.resolve("%s-%08x.cache".formatted(absolute.getFileName(), absolute.toString().hashCode()));
+    }
+
+    /**
+     * @return true for the cache and for the temporary file of a save (left behind by a crash),
+     *         which are never renamed
+     */
+    public static boolean isCacheFile(String fileName) {
+        return fileName.equals(FILE_NAME) || fileName.equals(FILE_NAME + TMP_SUFFIX);
+    }
+
+    /**
+     * Loads a cache file; a missing, unreadable or outdated cache is simply empty.
+     */
+    public static MetadataCache load(Path file) {
+        var entries = new HashMap<String, Entry>();
+        if (Files.exists(file)) {
+            try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() == MAGIC && in.readByte() == VERSION) {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        entries.put(in.readUTF(), new Entry(in.readLong(), in.readLong(), in.readLong()));
+                    }
+                }
+            } catch (IOException e) {
+                System.err.printf("Ignoring unreadable cache %s: %s%n", file, e.getMessage());
+                entries.clear();
+            }
+        }
+        return new MetadataCache(file, entries);
+    }
+
+    /**
+     * @return the cached EXIF key of the file, {@link #MISSING} when not cached or outdated
+     */
+    public synchronized long exifKey(ScannedFile scanned) {
+        var entry = entries.get(identity(scanned));
+        if (entry == null || entry.size() != scanned.size() || entry.lastModified() != scanned.lastModified()) {
+            return MISSING;
+        }
+        return entry.exifKey();
+    }
+
+    public synchronized void putExifKey(ScannedFile scanned, long exifKey) {
+        entries.put(identity(scanned), new Entry(scanned.size(), scanned.lastModified(), exifKey));
+        dirty = true;
+    }
+
+    /**
+     * Writes the cache, keeping only the entries of the accepted files of the snapshot.
+     * The file is replaced atomically so a crash never leaves a torn cache behind.
+     */
+    public synchronized void save(DirectorySnapshot snapshot) throws IOException {
+        var kept = new HashMap<String, Entry>();
+        for (var scanned : snapshot.files()) {
+            var identity = identity(scanned);
+            var entry = entries.get(identity);
+            if (entry != null && kept.size() < MAX_ENTRIES) {
+                kept.put(identity, entry);
+            }
+        }
+        if (!dirty && kept.size() == entries.size()) {
+            return;
+        }
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        var tmp = file.resolveSibling(file.getFileName() + TMP_SUFFIX);
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(kept.size());
+            for (var cached : kept.entrySet()) {
+                out.writeUTF(cached.getKey());
+                out.writeLong(cached.getValue().size());
+                out.writeLong(cached.getValue().lastModified());
+                out.writeLong(cached.getValue().exifKey());
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        entries.clear();
+        entries.putAll(kept);
+        dirty = false;
+    }
+
+    private String identity(ScannedFile scanned) {
+        return scanned.fileKey() != null ? "k:" + scanned.fileKey() : "n:" + scanned.fileName();
+    }
+
+    private record Entry(
+            long size,
+            long lastModified,
+            long exifKey
+    ) {
+    }
+}
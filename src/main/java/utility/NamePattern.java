@@ -0,0 +1,377 @@
+package utility;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Naming pattern given with --name-pattern, ex. {@code P{folder}{seq:04}.JPG} or
+ * {@code {prefix}{date:yyyyMMdd}_{seq:03}{ext}}.
+ * <p>
+ * Tokens:
+ * <ul>
+ *     <li>{@code {prefix}}: the --prefix value</li>
+ *     <li>{@code {folder}}: number of the folder (ex. 120 for 120OLYMP), folder templates only</li>
+ *     <li>{@code {seq}}, {@code {seq:0N}}: sequence number, zero padded to N digits (required)</li>
+ *     <li>{@code {date:<format>}}: date of the sort key, as a {@link DateTimeFormatter} pattern</li>
+ *     <li>{@code {ext}}: extension of the original file, dot included</li>
+ * </ul>
+ * Any other text is copied as is. A name is a single file name: path separators and NUL are
+ * rejected in the text, the dates and the prefix, and every generated name is checked again.
+ * The pattern is parsed once; {@link #bind} turns it into a
+ * chain of appenders writing into a reused {@link StringBuilder}, so generating a name does
+ * no format parsing and no boxing.
+ */
+public final class NamePattern {
+    /**
+     * Folder number to bind when the template has no numbered folder.
+     */
+    public static final int NO_FOLDER = -1;
+
+    private enum Kind { LITERAL, PREFIX, FOLDER, SEQ, DATE, EXT }
+
+    private record Token(Kind kind, String text, int width) {
+    }
+
+    @FunctionalInterface
+    private interface Appender {
+        void append(StringBuilder out, int sequenceNumber, String sourceName, long key);
+    }
+
+    // zone with separators in its id, so that {date:VV} is caught at compile time
+    private static final ZonedDateTime SAMPLE_DATE =
+        ZonedDateTime.of(2001, 12, 31, 23, 59, 58, 123_456_789, ZoneId.of("America/Argentina/Buenos_Aires"));
+
+    private final String pattern;
+    private final List<Token> tokens;
+
+    private NamePattern(String pattern, List<Token> tokens) {
+        this.pattern = pattern;
+        this.tokens = tokens;
+    }
+
+    /**
+     * Parses a naming pattern.
+     *
+     * @param pattern the pattern
+     * @return the parsed pattern
+     * @throws IllegalArgumentException if the pattern is malformed or has no {@code {seq}}
+     */
+    public static NamePattern compile(String pattern) {
+        var tokens = new ArrayList<Token>();
+        boolean hasSequence = false;
+        int i = 0;
+        while (i < pattern.length()) {
+            int open = pattern.indexOf('{', i);
+            int close = pattern.indexOf('}', i);
+            if (close >= 0 && (open < 0 || close < open)) {
+                throw invalid(pattern, "unexpected '}' at %d".formatted(close));
+            }
+            if (open < 0) {
+                tokens.add(literal(pattern, pattern.substring(i)));
+                break;
+            }
+            if (open > i) {
+                tokens.add(literal(pattern, pattern.substring(i, open)));
+            }
+            if (close < 0) {
+                throw invalid(pattern, "unclosed '{' at %d".formatted(open));
+            }
+
+            var token = parseToken(pattern, pattern.substring(open + 1, close));
+            hasSequence |= token.kind() == Kind.SEQ;
+            tokens.add(token);
+            i = close + 1;
+        }
+        if (!hasSequence) {
+            throw invalid(pattern, "{seq} is required to keep the names unique");
+        }
+        return new NamePattern(pattern, List.copyOf(tokens));
+    }
+
+    private static Token parseToken(String pattern, String token) {
+        int colon = token.indexOf(':');
+        var name = colon < 0 ? token : token.substring(0, colon);
+        var argument = colon < 0 ? null : token.substring(colon + 1);
+        return switch (name) {
+            case "prefix" -> new Token(Kind.PREFIX, null, 0);
+            case "folder" -> new Token(Kind.FOLDER, null, 0);
+            case "ext" -> new Token(Kind.EXT, null, 0);
+            case "seq" -> {
+                if (argument == null) {
+                    yield new Token(Kind.SEQ, null, 0);
+                }
+                if (!argument.matches("0?\\d{1,2}")) {
+                    throw invalid(pattern, "{seq:%s}, expected a width like {seq:04}".formatted(argument));
+                }
+                yield new Token(Kind.SEQ, null, Integer.parseInt(argument));
+            }
+            case "date" -> {
+                if (argument == null || argument.isEmpty()) {
+                    throw invalid(pattern, "{date} requires a format, ex. {date:yyyyMMdd}");
+                }
+                String sample;
+                try {
+                    sample = DateTimeFormatter.ofPattern(argument).format(SAMPLE_DATE);
+                } catch (IllegalArgumentException | DateTimeException e) {
+                    throw invalid(pattern, "{date:%s}, %s".formatted(argument, e.getMessage()));
+                }
+                if (hasSeparator(sample)) {
+                    throw invalid(pattern, "{date:%s} renders %s, a name can't contain path separators"
+                        .formatted(argument, sample));
+                }
+                yield new Token(Kind.DATE, argument, 0);
+            }
+            default -> throw invalid(pattern, "unknown token {%s}".formatted(token));
+        };
+    }
+
+    private static Token literal(String pattern, String text) {
+        if (hasSeparator(text)) {
+            throw invalid(pattern, "'%s', a name can't contain path separators".formatted(text));
+        }
+        return new Token(Kind.LITERAL, text, 0);
+    }
+
+    /**
+     * @return true if the text has a character that would make a name point outside its folder
+     */
+    private static boolean hasSeparator(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '/' || c == '\\' || c == '\0') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static IllegalArgumentException invalid(String pattern, String reason) {
+        return new IllegalArgumentException("Invalid --name-pattern %s: %s".formatted(pattern, reason));
+    }
+
+    /**
+     * Compiles the pattern into a name function. Constant parts ({@code prefix}, {@code folder}
+     * and literal text) are joined once here.
+     * <p>
+     * The function keeps its own buffer and date cache: it must not be shared between threads.
+     *
+     * @param prefix the --prefix value, null for none
+     * @param folder the folder number, {@link #NO_FOLDER} for none
+     * @param zone   time zone the sort keys are rendered in by {@code {date}}
+     * @return the name function
+     * @throws IllegalArgumentException if the pattern uses {@code {folder}} and there is no folder number,
+     *                                  or the prefix has a path separator
+     */
+    public SequenceNameFunction bind(String prefix, int folder, ZoneId zone) {
+        if (prefix != null && hasSeparator(prefix)) {
+            throw new IllegalArgumentException("Invalid --prefix %s: a name can't contain path separators".formatted(prefix));
+        }
+        var appenders = new ArrayList<Appender>();
+        var constant = new StringBuilder();
+        for (var token : tokens) {
+            if (isConstant(token)) {
+                appendConstant(constant, token, prefix, folder);
+                continue;
+            }
+            if (!constant.isEmpty()) {
+                var text = constant.toString();
+                appenders.add((out, sequenceNumber, sourceName, key) -> out.append(text));
+                constant.setLength(0);
+            }
+            appenders.add(switch (token.kind()) {
+                case SEQ -> {
+                    int width = token.width();
+                    yield (out, sequenceNumber, sourceName, key) -> appendPadded(out, sequenceNumber, width);
+                }
+                case EXT -> (out, sequenceNumber, sourceName, key) -> {
+                    int dot = sourceName.lastIndexOf('.');
+                    if (dot >= 0) {
+                        out.append(sourceName, dot, sourceName.length());
+                    }
+                };
+                case DATE -> new DateAppender(token.text(), zone);
+                default -> throw new IllegalStateException(token.kind().name());
+            });
+        }
+        if (!constant.isEmpty()) {
+            var text = constant.toString();
+            appenders.add((out, sequenceNumber, sourceName, key) -> out.append(text));
+        }
+        return new CompiledName(appenders.toArray(Appender[]::new));
+    }
+
+    /**
+     * Regular expression matching the names generated by {@link #bind} with the same
+     * prefix and folder; group 1 captures the (first) sequence number.
+     *
+     * @param flags {@link Pattern} flags, ex. {@link Pattern#CASE_INSENSITIVE}
+     */
+    public Pattern sequencedName(String prefix, int folder, int flags) {
+        var regex = new StringBuilder();
+        var constant = new StringBuilder();
+        boolean sequenceCaptured = false;
+        for (var token : tokens) {
+            if (isConstant(token)) {
+                appendConstant(constant, token, prefix, folder);
+                continue;
+            }
+            if (!constant.isEmpty()) {
+                regex.append(Pattern.quote(constant.toString()));
+                constant.setLength(0);
+            }
+            switch (token.kind()) {
+                case SEQ -> {
+                    regex.append(sequenceCaptured ? "\\d" : "(\\d").append('{').append(Math.max(1, token.width()))
+                        .append(sequenceCaptured ? ",}" : ",})");
+                    sequenceCaptured = true;
+                }
+                case EXT -> regex.append("(?:\\.[^.]*)?");
+                case DATE -> regex.append(".+?");
+                default -> throw new IllegalStateException(token.kind().name());
+            }
+        }
+        if (!constant.isEmpty()) {
+            regex.append(Pattern.quote(constant.toString()));
+        }
+        return Pattern.compile(regex.toString(), flags);
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+    private static boolean isConstant(Token token) {
+        return token.kind() == Kind.LITERAL || token.kind() == Kind.PREFIX || token.kind() == Kind.FOLDER;
+    }
+
+    private void appendConstant(StringBuilder out, Token token, String prefix, int folder) {
+        switch (token.kind()) {
+            case LITERAL -> out.append(token.text());
+            case PREFIX -> out.append(prefix != null ? prefix : "");
+            case FOLDER -> {
+                if (folder == NO_FOLDER) {
+                    throw invalid(pattern, "{folder} is only available for templates with numbered folders");
+                }
+                out.append(folder);
+            }
+            default -> throw new IllegalStateException(token.kind().name());
+        }
+    }
+
+    private static void appendPadded(StringBuilder out, int value, int width) {
+        int digits = 1;
+        for (long limit = 10; limit <= Math.abs((long) value) && digits < 10; limit *= 10) {
+            digits++;
+        }
+        if (value < 0) {
+            out.append('-');
+            width--;
+        }
+        for (int i = digits; i < width; i++) {
+            out.append('0');
+        }
+        out.append(Math.abs((long) value));
+    }
+
+    private static final class CompiledName implements SequenceNameFunction {
+        private final Appender[] appenders;
+        private final StringBuilder buffer = new StringBuilder(64);
+
+        private CompiledName(Appender[] appenders) {
+            this.appenders = appenders;
+        }
+
+        @Override
+        public String apply(int sequenceNumber, String sourceName) {
+            buffer.setLength(0);
+            appendTo(buffer, sequenceNumber, sourceName, 0);
+            return buffer.toString();
+        }
+
+        @Override
+        public void appendTo(StringBuilder out, int sequenceNumber, String sourceName, long key) {
+            int start = out.length();
+            for (var appender : appenders) {
+                appender.append(out, sequenceNumber, sourceName, key);
+            }
+            var name = out.subSequence(start, out.length());
+            if (name.isEmpty() || hasSeparator(name) || ".".contentEquals(name) || "..".contentEquals(name)) {
+                throw new IllegalArgumentException("Generated name %s for %s is not a file name".formatted(name, sourceName));
+            }
+        }
+    }
+
+    /**
+     * Formats the key (epoch nanoseconds) as a date. Files sorted by date share most of
+     * their dates, so the last rendered text is kept with the range of keys it is valid
+     * for: the same day, or second, depending on the finest field of the format.
+     */
+    private static final class DateAppender implements Appender {
+        private final DateTimeFormatter formatter;
+        private final ZoneId zone;
+        private final Granularity granularity;
+        private long validFrom = 1;
+        private long validTo = 0; // empty range, nothing rendered yet
+        private String text;
+
+        private enum Granularity { DAY, SECOND, NONE }
+
+        private DateAppender(String format, ZoneId zone) {
+            this.formatter = DateTimeFormatter.ofPattern(format);
+            this.zone = zone;
+            this.granularity = granularityOf(format);
+        }
+
+        @Override
+        public void append(StringBuilder out, int sequenceNumber, String sourceName, long key) {
+            if (key < validFrom || key >= validTo) {
+                var dateTime = Instant.ofEpochSecond(Math.floorDiv(key, 1_000_000_000L), Math.floorMod(key, 1_000_000_000L))
+                    .atZone(zone);
+                text = formatter.format(dateTime);
+                switch (granularity) {
+                    case DAY -> {
+                        var day = dateTime.toLocalDate();
+                        validFrom = epochNanos(day.atStartOfDay(zone).toInstant());
+                        validTo = epochNanos(day.plusDays(1).atStartOfDay(zone).toInstant());
+                    }
+                    case SECOND -> {
+                        validFrom = Math.floorDiv(key, 1_000_000_000L) * 1_000_000_000L;
+                        validTo = validFrom + 1_000_000_000L;
+                    }
+                    case NONE -> {
+                        validFrom = 1;
+                        validTo = 0;
+                    }
+                }
+            }
+            out.append(text);
+        }
+
+        private static long epochNanos(Instant instant) {
+            return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+        }
+
+        private static Granularity granularityOf(String format) {
+            var granularity = Granularity.DAY;
+            boolean quoted = false;
+            for (int i = 0; i < format.length(); i++) {
+                char c = format.charAt(i);
+                if (c == '\'') {
+                    quoted = !quoted;
+                } else if (!quoted && "SnNAV".indexOf(c) >= 0) {
+                    return Granularity.NONE; // fractions of second, zone ids: rendered every time
+                } else if (!quoted && "HhKkmsaBOXxZzv".indexOf(c) >= 0) {
+                    granularity = Granularity.SECOND;
+                }
+            }
+            return granularity;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package utility;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public enum ParallelIo {
+    INSTANCE;
+
+    @FunctionalInterface
+    public interface IoFunction<T, R> {
+        R apply(T item) throws IOException;
+    }
+
+    /**
+     * Applies an I/O bound function to every item on virtual threads, with at most
+     * {@code parallelism} calls in flight. Returns only once every call has finished,
+     * so it acts as a barrier between phases.
+     *
+     * @param items       the items to process
+     * @param parallelism maximum number of calls in flight
+     * @param fn          the function to apply
+     * @return the results, in the same order as the items
+     * @throws IOException if any call failed (the first failure is rethrown, the others are suppressed)
+     */
+    public <T, R> List<R> map(List<T> items, int parallelism, IoFunction<T, R> fn) throws IOException {
+        var futures = new ArrayList<Future<R>>(items.size());
+        try (var executor = Executors.newFixedThreadPool(parallelism, Thread.ofVirtual().factory())) {
+            for (var item : items) {
+                futures.add(executor.submit(() -> fn.apply(item)));
+            }
+        }
+
+        var results = new ArrayList<R>(items.size());
+        Exception failure = null;
+        for (var future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception cause ? cause : e;
+                } else {
+                    failure.addSuppressed(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for I/O", e);
+            }
+        }
+        if (failure instanceof IOException e) {
+            throw e;
+        }
+        if (failure instanceof RuntimeException e) {
+            throw e;
+        }
+        if (failure != null) {
+            throw new IOException(failure);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,270 @@
+package utility;
+
+import model.PreviewMode;
+import model.RenamePlan;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Locale;
+
+public enum PreviewPrinter {
+    INSTANCE;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int SUMMARY_EDGE = 5;
+
+    /**
+     * Prints the preview of a rename plan through a single buffered writer.
+     * The preview of a plan is written as a whole, so previews of folders renamed
+     * concurrently don't interleave.
+     *
+     * @param plan the plan to print
+     * @param mode how much of the plan to print, and where
+     */
+    public void print(RenamePlan plan, PreviewMode mode) {
+        synchronized (this) {
+            try {
+                var console = new BufferedWriter(new OutputStreamWriter(System.out, Charset.defaultCharset()), BUFFER_SIZE);
+                switch (mode.kind()) {
+                    case FULL -> full(console, plan, plan.size());
+                    case HEAD -> full(console, plan, mode.limit());
+                    case SUMMARY -> summary(console, plan);
+                    case FILE -> {
+                        toFile(plan, mode);
+                        summary(console, plan);
+                        console.write("\nFull preview written to %s".formatted(mode.file()));
+                    }
+                }
+                // System.out must stay open, only flush it
+                console.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error writing the preview", e);
+            }
+        }
+    }
+
+    /**
+     * Starts the preview of a plan produced as a stream, for plans too large to be kept in
+     * memory: mappings are printed (or written to the preview file) as they are added, only
+     * the first and last few are kept for the summary, which is printed on close.
+     *
+     * @param mode how much of the plan to print, and where
+     * @return the open preview
+     * @throws IOException if the preview file can't be created
+     */
+    public StreamingPreview stream(PreviewMode mode) throws IOException {
+        return new StreamingPreview(mode);
+    }
+
+    private void full(Writer out, RenamePlan plan, int limit) throws IOException {
+        out.write("Preview rename (%d file):".formatted(plan.size()));
+        int lines = Math.min(limit, plan.size());
+        mappings(out, plan, 0, lines);
+        if (lines < plan.size()) {
+            out.write("\n... and %d more".formatted(plan.size() - lines));
+        }
+    }
+
+    private void summary(Writer out, RenamePlan plan) throws IOException {
+        int unchanged = 0;
+        for (int i = 0; i < plan.size(); i++) {
+            if (plan.isIdentity(i)) {
+                unchanged++;
+            }
+        }
+        out.write("Preview rename (%d file, %d to rename, %d unchanged)".formatted(
+            plan.size(), plan.size() - unchanged, unchanged));
+        if (plan.isEmpty()) {
+            return;
+        }
+        int last = plan.size() - 1;
+        out.write("\nSequence %d..%d, targets %s .. %s".formatted(
+            plan.sequence(0), plan.sequence(last), plan.targetName(0), plan.targetName(last)));
+        if (plan.size() <= 2 * SUMMARY_EDGE) {
+            mappings(out, plan, 0, plan.size());
+        } else {
+            mappings(out, plan, 0, SUMMARY_EDGE);
+            out.write("\n...");
+            mappings(out, plan, plan.size() - SUMMARY_EDGE, plan.size());
+        }
+    }
+
+    private void mappings(Writer out, RenamePlan plan, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            out.write('\n');
+            out.write(plan.sourceName(i));
+            out.write(" -> ");
+            out.write(plan.targetName(i));
+        }
+    }
+
+    private void toFile(RenamePlan plan, PreviewMode mode) throws IOException {
+        boolean json = mode.file().getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json");
+        try (var out = Files.newBufferedWriter(mode.file())) {
+            if (json) {
+                out.write("[");
+                for (int i = 0; i < plan.size(); i++) {
+                    out.write(i == 0 ? "\n" : ",\n");
+                    out.write("{\"seq\":%d,\"source\":\"%s\",\"target\":\"%s\"}".formatted(
+                        plan.sequence(i), jsonEscape(plan.sourceName(i)), jsonEscape(plan.targetName(i))));
+                }
+                out.write("\n]\n");
+            } else {
+                out.write("seq\tsource\ttarget\n");
+                for (int i = 0; i < plan.size(); i++) {
+                    out.write(Integer.toString(plan.sequence(i)));
+                    out.write('\t');
+                    out.write(plan.sourceName(i));
+                    out.write('\t');
+                    out.write(plan.targetName(i));
+                    out.write('\n');
+                }
+            }
+        }
+    }
+
+    static String jsonEscape(String value) {
+        var escaped = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> escaped.append("\\\"");
+                case '\\' -> escaped.append("\\\\");
+                case '\n' -> escaped.append("\\n");
+                case '\t' -> escaped.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        escaped.append("\\u%04x".formatted((int) c));
+                    } else {
+                        escaped.append(c);
+                    }
+                }
+            }
+        }
+        return escaped.toString();
+    }
+
+    public static final class StreamingPreview implements AutoCloseable {
+        private final PreviewMode mode;
+        private final Writer console;
+        private final Writer file;
+        private final boolean json;
+        private final String[] first = new String[SUMMARY_EDGE];
+        private final String[] last = new String[SUMMARY_EDGE]; // ring buffer
+        private long count = 0;
+        private long unchanged = 0;
+        private int firstSequence;
+        private int lastSequence;
+        private String firstTarget;
+        private String lastTarget;
+
+        private StreamingPreview(PreviewMode mode) throws IOException {
+            this.mode = mode;
+            this.console = new BufferedWriter(new OutputStreamWriter(System.out, Charset.defaultCharset()), BUFFER_SIZE);
+            this.json = mode.kind() == PreviewMode.Kind.FILE
+                && mode.file().getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json");
+            this.file = mode.kind() == PreviewMode.Kind.FILE ? Files.newBufferedWriter(mode.file()) : null;
+            if (file != null) {
+                file.write(json ? "[" : "seq\tsource\ttarget\n");
+            }
+            if (mode.kind() == PreviewMode.Kind.FULL || mode.kind() == PreviewMode.Kind.HEAD) {
+                console.write("Preview rename:");
+            }
+        }
+
+        public void add(int sequence, String source, String target) throws IOException {
+            if (count == 0) {
+                firstSequence = sequence;
+                firstTarget = target;
+            }
+            lastSequence = sequence;
+            lastTarget = target;
+            if (source.equals(target)) {
+                unchanged++;
+            }
+
+            var mapping = source + " -> " + target;
+            switch (mode.kind()) {
+                case FULL -> console.write("\n" + mapping);
+                case HEAD -> {
+                    if (count < mode.limit()) {
+                        console.write("\n" + mapping);
+                    }
+                }
+                case SUMMARY, FILE -> {
+                    if (count < SUMMARY_EDGE) {
+                        first[(int) count] = mapping;
+                    }
+                    last[(int) (count % SUMMARY_EDGE)] = mapping;
+                }
+            }
+            if (file != null) {
+                if (json) {
+                    file.write(count == 0 ? "\n" : ",\n");
+                    file.write("{\"seq\":%d,\"source\":\"%s\",\"target\":\"%s\"}".formatted(
+                        sequence, jsonEscape(source), jsonEscape(target)));
+                } else {
+                    file.write(Integer.toString(sequence));
+                    file.write('\t');
+                    file.write(source);
+                    file.write('\t');
+                    file.write(target);
+                    file.write('\n');
+                }
+            }
+            count++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (file != null) {
+                    if (json) {
+                        file.write("\n]\n");
+                    }
+                    file.close();
+                }
+                switch (mode.kind()) {
+                    case FULL -> console.write("\n(%d file)".formatted(count));
+                    case HEAD -> {
+                        if (count > mode.limit()) {
+                            console.write("\n... and %d more".formatted(count - mode.limit()));
+                        }
+                    }
+                    case SUMMARY, FILE -> summary();
+                }
+                if (mode.kind() == PreviewMode.Kind.FILE) {
+                    console.write("\nFull preview written to %s".formatted(mode.file()));
+                }
+            } finally {
+                console.flush();
+            }
+        }
+
+        private void summary() throws IOException {
+            console.write("Preview rename (%d file, %d to rename, %d unchanged)".formatted(
+                count, count - unchanged, unchanged));
+            if (count == 0) {
+                return;
+            }
+            console.write("\nSequence %d..%d, targets %s .. %s".formatted(
+                firstSequence, lastSequence, firstTarget, lastTarget));
+            int head = (int) Math.min(count, SUMMARY_EDGE);
+            for (int i = 0; i < head; i++) {
+                console.write("\n" + first[i]);
+            }
+            if (count > 2 * SUMMARY_EDGE) {
+                console.write("\n...");
+            }
+            long tailFrom = Math.max(head, count - SUMMARY_EDGE);
+            for (long i = tailFrom; i < count; i++) {
+                console.write("\n" + last[(int) (i % SUMMARY_EDGE)]);
+            }
+        }
+    }
+}
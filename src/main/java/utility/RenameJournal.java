@@ -0,0 +1,418 @@
+package utility;
+
+import model.RenameMove;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Write-ahead journal of a rename run, stored inside the renamed directory.
+ * <p>
+ * The planned moves are written and forced before the first move; progress is then
+ * recorded as markers ("the first N moves are done" while moving forward, "moves from N
+ * on are undone" while rolling back) which are forced in groups instead of once per move.
+ * A group is also forced early when a move is about to reoccupy a name vacated since the
+ * last marker, so that on recovery every move after the last marker can be classified
+ * just by checking whether its source still exists.
+ * Before a marker is written, and before the journal is deleted, the directory itself is
+ * forced, so that neither claims moves whose renames could still be lost in a crash; where the platform can't
+ * open a directory (Windows), markers only rely on the journal being forced.
+ * <p>
+ * Runs executed in parallel declare their phases instead: the moves of a phase are
+ * independent of each other, a marker is forced at the end of every phase and on
+ * recovery each move of the phase in progress is classified on its own.
+ * <p>
+ * Streamed runs plan while they move: their journal starts empty and every phase is
+ * appended (and forced) right before it runs. Until the run declares its plan complete
+ * it can only be rolled back.
+ * <p>
+ * The journal is deleted once the run completes; finding one on start means the
+ * previous run was interrupted.
+ */
+public final class RenameJournal implements AutoCloseable {
+    public static final String FILE_NAME = ".bulk-rename.journal";
+
+    private static final int MAGIC = 0x42524A4C; // "BRJL"
+    private static final byte VERSION = 2;
+    private static final byte DONE = 'D';
+    private static final byte UNDONE = 'U';
+    private static final byte PHASE = 'M';
+    private static final int STREAMED = -1; // move count of a streamed journal
+    private static final int GROUP_COMMIT_SIZE = 512;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final DataOutputStream out;
+    private final byte markerType;
+    private final Set<String> vacatedSinceMarker = new HashSet<>();
+    private int unforced = 0;
+    private int progress;
+    private int streamed = -1; // moves appended to a streamed journal, -1 for a planned one
+    private boolean directorySync = true; // false once the platform refused to force the directory
+
+    private RenameJournal(Path file, FileChannel channel, byte markerType, int progress) {
+        this.file = file;
+        this.channel = channel;
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        this.markerType = markerType;
+        this.progress = progress;
+    }
+
+    public static Path fileIn(Path dir) {
+        return dir.resolve(FILE_NAME);
+    }
+
+    /**
+     * Creates the journal of a new run executed in order and durably records the planned moves.
+     *
+     * @param dir   the directory being renamed
+     * @param moves the planned moves, all inside {@code dir}
+     * @return the open journal, positioned for forward progress markers
+     * @throws IOException           if the journal can't be written
+     * @throws IllegalStateException if an unfinished journal already exists
+     */
+    public static RenameJournal create(Path dir, List<RenameMove> moves) throws IOException {
+        return create(dir, moves, List.of());
+    }
+
+    /**
+     * Creates the journal of a new run and durably records the planned moves.
+     *
+     * @param dir       the directory being renamed
+     * @param moves     the planned moves, all inside {@code dir}
+     * @param phaseEnds end index (exclusive) of every phase of independent moves,
+     *                  empty when the moves are executed strictly in order
+     * @return the open journal, positioned for forward progress markers
+     * @throws IOException           if the journal can't be written
+     * @throws IllegalStateException if an unfinished journal already exists
+     */
+    public static RenameJournal create(Path dir, List<RenameMove> moves, List<Integer> phaseEnds) throws IOException {
+        return create(dir, moves.size(), moves.iterator(), phaseEnds);
+    }
+
+    /**
+     * Same as {@link #create(Path, List, List)}, with the moves streamed from an iterator
+     * so that they don't need to be in memory.
+     *
+     * @param count number of moves the iterator returns
+     */
+    public static RenameJournal create(Path dir, int count, Iterator<RenameMove> moves, List<Integer> phaseEnds)
+            throws IOException {
+        var file = fileIn(dir);
+        if (Files.exists(file)) {
+            throw new IllegalStateException("Unfinished rename journal found: %s".formatted(file));
+        }
+        var channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        var journal = new RenameJournal(file, channel, DONE, 0);
+        try {
+            journal.out.writeInt(MAGIC);
+            journal.out.writeByte(VERSION);
+            journal.out.writeInt(count);
+            for (int i = 0; i < count; i++) { // none for a streamed journal
+                var move = moves.next();
+                journal.out.writeUTF(move.source().getFileName().toString());
+                journal.out.writeUTF(move.target().getFileName().toString());
+            }
+            journal.out.writeInt(phaseEnds.size());
+            for (var phaseEnd : phaseEnds) {
+                journal.out.writeInt(phaseEnd);
+            }
+            journal.out.flush();
+            long start = System.nanoTime();
+            channel.force(true);
+            RunStats.INSTANCE.operation("journalForce", start);
+        } catch (IOException | RuntimeException e) {
+            journal.close();
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        return journal;
+    }
+
+    /**
+     * Creates the journal of a streamed run, whose phases are added with {@link #appendPhase(List, boolean)}.
+     *
+     * @param dir the directory being renamed
+     * @return the open journal, positioned for forward progress markers
+     * @throws IOException           if the journal can't be written
+     * @throws IllegalStateException if an unfinished journal already exists
+     */
+    public static RenameJournal createStreamed(Path dir) throws IOException {
+        var journal = create(dir, STREAMED, null, List.of());
+        journal.streamed = 0;
+        return journal;
+    }
+
+    /**
+     * Reads the unfinished journal of a directory, if any.
+     *
+     * @param dir the directory to inspect
+     * @return the journal state, or null when there is no journal or it was interrupted
+     *         before any move could start (in which case it is removed)
+     * @throws IOException if the journal can't be read
+     */
+    public static State read(Path dir) throws IOException {
+        var file = fileIn(dir);
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        var moves = new ArrayList<RenameMove>();
+        var phaseEnds = new ArrayList<Integer>();
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            try {
+                if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                    throw new IllegalStateException("Unrecognized rename journal: %s".formatted(file));
+                }
+                int count = in.readInt();
+                if (count == STREAMED) {
+                    in.readInt(); // no phases in the header
+                    return readStreamed(file, in);
+                }
+                for (int i = 0; i < count; i++) {
+                    moves.add(new RenameMove(dir.resolve(in.readUTF()), dir.resolve(in.readUTF())));
+                }
+                int phaseCount = in.readInt();
+                for (int i = 0; i < phaseCount; i++) {
+                    phaseEnds.add(in.readInt());
+                }
+            } catch (EOFException e) {
+                // header never made it to disk, so no move was started
+                Files.delete(file);
+                return null;
+            }
+
+            int done = 0;
+            int undone = -1;
+            try {
+                while (true) {
+                    var type = in.readByte();
+                    var value = in.readInt();
+                    if (type == DONE) {
+                        done = value;
+                    } else if (type == UNDONE) {
+                        undone = value;
+                    }
+                }
+            } catch (EOFException e) {
+                // end of the markers, a torn last marker is simply ignored
+            }
+            return new State(file, moves, phaseEnds, done, undone, true);
+        }
+    }
+
+    private static State readStreamed(Path file, DataInputStream in) throws IOException {
+        var dir = file.getParent();
+        var moves = new ArrayList<RenameMove>();
+        var phaseEnds = new ArrayList<Integer>();
+        var phase = new ArrayList<RenameMove>();
+        int done = 0;
+        int undone = -1;
+        boolean planned = false;
+        try {
+            while (true) {
+                var type = in.readByte();
+                if (type == PHASE) {
+                    int count = in.readInt();
+                    phase.clear();
+                    for (int i = 0; i < count; i++) {
+                        phase.add(new RenameMove(dir.resolve(in.readUTF()), dir.resolve(in.readUTF())));
+                    }
+                    planned = in.readBoolean();
+                    moves.addAll(phase);
+                    phaseEnds.add(moves.size());
+                } else {
+                    var value = in.readInt();
+                    if (type == DONE) {
+                        done = value;
+                    } else if (type == UNDONE) {
+                        undone = value;
+                    }
+                }
+            }
+        } catch (EOFException e) {
+            // a torn phase was never forced, so none of its moves was started
+        }
+        if (moves.isEmpty()) {
+            Files.delete(file);
+            return null;
+        }
+        return new State(file, moves, phaseEnds, done, undone, planned);
+    }
+
+    /**
+     * Reopens an unfinished journal to keep recording the progress of its recovery.
+     *
+     * @param state    the state read with {@link #read(Path)}
+     * @param rollback true to record rollback markers, false for forward ones
+     * @param progress the current marker value
+     */
+    public static RenameJournal resume(State state, boolean rollback, int progress) throws IOException {
+        var channel = FileChannel.open(state.file(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        var journal = new RenameJournal(state.file(), channel, rollback ? UNDONE : DONE, progress);
+        journal.unforced = 1;
+        journal.flush();
+        return journal;
+    }
+
+    /**
+     * Must be called right before executing a move: forces the pending markers when
+     * the move reoccupies a name vacated since the last forced marker.
+     */
+    public void beforeMove(RenameMove move) throws IOException {
+        if (vacatedSinceMarker.contains(move.target().getFileName().toString())) {
+            flush();
+        }
+    }
+
+    /**
+     * Must be called right after a move succeeded.
+     *
+     * @param move     the executed move
+     * @param progress the marker value once this move is done
+     */
+    public void afterMove(RenameMove move, int progress) throws IOException {
+        this.progress = progress;
+        vacatedSinceMarker.add(move.source().getFileName().toString());
+        if (++unforced >= GROUP_COMMIT_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Forces a progress marker, used at the end of every phase of a parallel run.
+     *
+     * @param progress the marker value
+     */
+    public void checkpoint(int progress) throws IOException {
+        this.progress = progress;
+        unforced = Math.max(unforced, 1);
+        flush();
+    }
+
+    /**
+     * Appends a phase to a streamed journal and forces it, must be called before its first move.
+     * The run progresses as usual, with {@link #checkpoint(int)} at the end of the phase.
+     *
+     * @param phase independent moves
+     * @param last  true if the plan is complete with this phase: from then on recovery can finish the run
+     */
+    public void appendPhase(List<RenameMove> phase, boolean last) throws IOException {
+        if (streamed < 0) {
+            throw new IllegalStateException("Not a streamed journal: %s".formatted(file));
+        }
+        out.writeByte(PHASE);
+        out.writeInt(phase.size());
+        for (var move : phase) {
+            out.writeUTF(move.source().getFileName().toString());
+            out.writeUTF(move.target().getFileName().toString());
+        }
+        out.writeBoolean(last);
+        streamed += phase.size();
+        unforced = Math.max(unforced, 1);
+        flush();
+    }
+
+    /**
+     * Marks the run as completed and removes the journal.
+     */
+    public void complete() throws IOException {
+        close();
+        forceDirectory(); // the renames must not be lost once the journal is gone
+        Files.deleteIfExists(file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            try {
+                out.flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        if (unforced == 0) {
+            return;
+        }
+        forceDirectory(); // the renames first, then the marker recording them
+        out.writeByte(markerType);
+        out.writeInt(progress);
+        out.flush();
+        long start = System.nanoTime();
+        channel.force(false);
+        RunStats.INSTANCE.operation("journalForce", start);
+        vacatedSinceMarker.clear();
+        unforced = 0;
+    }
+
+    /**
+     * Forces the entries of the renamed directory to disk.
+     */
+    private void forceDirectory() {
+        if (!directorySync) {
+            return;
+        }
+        long start = System.nanoTime();
+        try (var directory = FileChannel.open(file.getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException | UnsupportedOperationException e) {
+            directorySync = false; // directories can't be opened or forced on this platform
+            RunStats.INSTANCE.fallback("journalWithoutDirectorySync", 1);
+        } finally {
+            RunStats.INSTANCE.operation("directoryForce", start);
+        }
+    }
+
+    /**
+     * Content of an unfinished journal.
+     *
+     * @param file   the journal file
+     * @param moves     the planned moves, in execution order
+     * @param phaseEnds end index of every phase of independent moves, empty for ordered runs
+     * @param done      number of moves durably recorded as done
+     * @param undone    index from which moves were durably rolled back, -1 if no rollback started
+     * @param planned   false for a streamed run interrupted before its plan was complete,
+     *                  which can only be rolled back
+     */
+    public record State(
+            Path file,
+            List<RenameMove> moves,
+            List<Integer> phaseEnds,
+            int done,
+            int undone,
+            boolean planned
+    ) {
+        public boolean rollingBack() {
+            return undone >= 0;
+        }
+
+        /**
+         * @return the end of the phase the given move belongs to, or -1 for ordered runs
+         */
+        public int phaseEnd(int moveIndex) {
+            for (var phaseEnd : phaseEnds) {
+                if (moveIndex < phaseEnd) {
+                    return phaseEnd;
+                }
+            }
+            return phaseEnds.isEmpty() ? -1 : moves.size();
+        }
+    }
+}
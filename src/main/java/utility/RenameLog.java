@@ -0,0 +1,350 @@
+package utility;
+
+import model.RenameMove;
+import model.RenamePlan;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Undo log of the last run that renamed files of a directory, stored inside the directory:
+ * the (original name, new name) pairs of the files it moved, replayed in reverse by --undo.
+ * <p>
+ * Format: magic, version, varint count, varint count of deleted files and their front coded
+ * names, then every pair with both names front coded against the same name of the previous
+ * pair (varint shared prefix length, varint suffix length, UTF-8 suffix bytes), then the
+ * CRC32C of everything before it. Names of a sequence share most of their bytes, so a pair
+ * usually takes a few bytes. A run that deleted files (--dedupe=delete) can't be undone,
+ * its log only records what was deleted. Version 1 logs have no deleted files.
+ * <p>
+ * The log is appended to a temporary file, forced and moved over the previous log, so a
+ * crash leaves either the old log or the new one.
+ */
+public final class RenameLog implements AutoCloseable {
+    public static final String FILE_NAME = ".bulk-rename.undo";
+
+    private static final int MAGIC = 0x4252554C; // "BRUL"
+    private static final byte VERSION = 2;
+    private static final byte VERSION_WITHOUT_DELETIONS = 1;
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final int MAX_NAME_LENGTH = 65535; // bytes, above the limit of any file system
+
+    private final Path file;
+    private final Path tmpFile;
+    private final FileChannel channel;
+    private final CRC32C crc = new CRC32C();
+    private final OutputStream out;
+    private final int count;
+    private int added = 0;
+    private byte[] previousSource = new byte[0];
+    private byte[] previousTarget = new byte[0];
+
+    private RenameLog(Path file, Path tmpFile, FileChannel channel, int count) {
+        this.file = file;
+        this.tmpFile = tmpFile;
+        this.channel = channel;
+        this.out = new CheckedOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), crc);
+        this.count = count;
+    }
+
+    public static Path fileIn(Path dir) {
+        return dir.resolve(FILE_NAME);
+    }
+
+    /**
+     * @return true for the log and its temporary file, which are never renamed
+     */
+    public static boolean isLogFile(String fileName) {
+        return fileName.equals(FILE_NAME) || fileName.equals(FILE_NAME + TMP_SUFFIX);
+    }
+
+    /**
+     * Starts the log of a run, which replaces the log of the directory on {@link #commit()}.
+     *
+     * @param dir   the renamed directory
+     * @param count number of pairs that will be added
+     * @return the open log
+     * @throws IOException if the log can't be written
+     */
+    public static RenameLog create(Path dir, int count) throws IOException {
+        return create(dir, count, List.of());
+    }
+
+    /**
+     * Starts the log of a run that also deleted files.
+     *
+     * @param dir     the renamed directory
+     * @param count   number of pairs that will be added
+     * @param deleted names of the deleted files
+     * @return the open log
+     * @throws IOException if the log can't be written
+     */
+    public static RenameLog create(Path dir, int count, List<String> deleted) throws IOException {
+        var file = fileIn(dir);
+        var tmpFile = dir.resolve(FILE_NAME + TMP_SUFFIX);
+        var channel = FileChannel.open(tmpFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE);
+        var log = new RenameLog(file, tmpFile, channel, count);
+        try {
+            writeInt(log.out, MAGIC);
+            log.out.write(VERSION);
+            writeVarint(log.out, count);
+            writeVarint(log.out, deleted.size());
+            var previous = new byte[0];
+            for (var name : deleted) {
+                previous = log.writeName(name, previous);
+            }
+        } catch (IOException e) {
+            log.close();
+            throw e;
+        }
+        return log;
+    }
+
+    /**
+     * Writes the log of the moved entries of a plan (the identities are left out).
+     *
+     * @param plan the executed plan
+     * @throws IOException if the log can't be written
+     */
+    public static void write(RenamePlan plan) throws IOException {
+        write(plan, List.of());
+    }
+
+    /**
+     * Writes the log of a plan executed by a run that also deleted files.
+     *
+     * @param plan    the executed plan
+     * @param deleted names of the files deleted by the run
+     * @throws IOException if the log can't be written
+     */
+    public static void write(RenamePlan plan, List<String> deleted) throws IOException {
+        int count = 0;
+        for (int i = 0; i < plan.size(); i++) {
+            if (!plan.isIdentity(i)) {
+                count++;
+            }
+        }
+        try (var log = create(plan.dir(), count, deleted)) {
+            for (int i = 0; i < plan.size(); i++) {
+                if (!plan.isIdentity(i)) {
+                    log.add(plan.sourceName(i), plan.targetName(i));
+                }
+            }
+            log.commit();
+        }
+    }
+
+    /**
+     * Writes the log of a run executed as a list of moves, some through temporary names:
+     * the moves are composed into (original name, final name) pairs.
+     *
+     * @param dir   the renamed directory
+     * @param moves the executed moves, in order
+     * @throws IOException if the log can't be written
+     */
+    public static void write(Path dir, List<RenameMove> moves) throws IOException {
+        var originals = new LinkedHashMap<String, String>(); // current name -> original name
+        for (var move : moves) {
+            var source = move.source().getFileName().toString();
+            var original = originals.remove(source);
+            originals.put(move.target().getFileName().toString(), original != null ? original : source);
+        }
+        originals.entrySet().removeIf(entry -> entry.getKey().equals(entry.getValue()));
+        try (var log = create(dir, originals.size())) {
+            for (var entry : originals.entrySet()) {
+                log.add(entry.getValue(), entry.getKey());
+            }
+            log.commit();
+        }
+    }
+
+    /**
+     * Appends a pair.
+     *
+     * @param source the original name
+     * @param target the new name
+     */
+    public void add(String source, String target) throws IOException {
+        if (added == count) {
+            throw new IllegalStateException("More than the %d declared pairs".formatted(count));
+        }
+        previousSource = writeName(source, previousSource);
+        previousTarget = writeName(target, previousTarget);
+        added++;
+    }
+
+    /**
+     * Completes the log and puts it in place of the previous one.
+     */
+    public void commit() throws IOException {
+        if (added != count) {
+            throw new IllegalStateException("Declared %d pairs, added %d".formatted(count, added));
+        }
+        out.flush();
+        writeInt(out, (int) crc.getValue());
+        out.flush();
+        long start = System.nanoTime();
+        channel.force(true);
+        RunStats.INSTANCE.operation("undoLogForce", start);
+        channel.close();
+        Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads a log in a single pass, checking its checksum before returning.
+     *
+     * @param log the log file, inside the renamed directory
+     * @param dir the renamed directory
+     * @return the plan undoing the logged run: every new name back to its original name
+     * @throws IOException           if the log can't be read
+     * @throws IllegalStateException if the log is not an undo log, is truncated or corrupted,
+     *                               or the run deleted files
+     */
+    public static RenamePlan read(Path log, Path dir) throws IOException {
+        var crc = new CRC32C();
+        try (var in = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(log), 1 << 16), crc)) {
+            int version = readInt(in) == MAGIC ? in.read() : -1;
+            if (version != VERSION && version != VERSION_WITHOUT_DELETIONS) {
+                throw new IllegalStateException("Not an undo log: %s".formatted(log));
+            }
+            int count = readVarint(in);
+            int deleted = version == VERSION ? readVarint(in) : 0;
+            if (count < 0 || count > Files.size(log) || deleted < 0 || deleted > Files.size(log)) {
+                throw new IllegalStateException("Corrupted undo log: %s".formatted(log));
+            }
+            if (deleted > 0) {
+                var first = readName(in, new byte[0], Files.size(log));
+                throw new IllegalStateException("The run logged in %s deleted %d duplicate files (%s%s), it can't be undone"
+                    .formatted(log, deleted, first != null ? new String(first, StandardCharsets.UTF_8) : "?",
+                        deleted > 1 ? ", ..." : ""));
+            }
+            var currentNames = new String[count];
+            var originalNames = new ArrayList<String>(count);
+            long size = Files.size(log);
+            var source = new byte[0];
+            var target = new byte[0];
+            for (int i = 0; i < count; i++) {
+                source = readName(in, source, size);
+                target = source != null ? readName(in, target, size) : null;
+                if (target == null) {
+                    throw new IllegalStateException("Corrupted undo log: %s".formatted(log));
+                }
+                originalNames.add(new String(source, StandardCharsets.UTF_8));
+                currentNames[i] = new String(target, StandardCharsets.UTF_8);
+            }
+            int expected = (int) crc.getValue();
+            if (readInt(in) != expected || in.read() != -1) {
+                throw new IllegalStateException("Corrupted undo log: %s".formatted(log));
+            }
+
+            var plan = RenamePlan.builder(dir, currentNames, count);
+            for (int i = 0; i < count; i++) {
+                plan.add(i, i, i, originalNames.get(i));
+            }
+            return plan.build();
+        } catch (EOFException e) {
+            throw new IllegalStateException("Truncated undo log: %s".formatted(log), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            channel.close();
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    private byte[] writeName(String name, byte[] previous) throws IOException {
+        var bytes = name.getBytes(StandardCharsets.UTF_8);
+        int shared = 0;
+        int max = Math.min(bytes.length, previous.length);
+        while (shared < max && bytes[shared] == previous[shared]) {
+            shared++;
+        }
+        writeVarint(out, shared);
+        writeVarint(out, bytes.length - shared);
+        out.write(bytes, shared, bytes.length - shared);
+        return bytes;
+    }
+
+    /**
+     * @param size the size of the log, no suffix can be longer
+     * @return the name, null if its lengths are inconsistent
+     */
+    private static byte[] readName(InputStream in, byte[] previous, long size) throws IOException {
+        int shared = readVarint(in);
+        int suffix = readVarint(in);
+        // checked before allocating: a damaged length must fail as a corrupted log, not as an OutOfMemoryError
+        if (shared < 0 || shared > previous.length || suffix < 0 || suffix > size
+                || (long) shared + suffix > MAX_NAME_LENGTH) {
+            return null;
+        }
+        var bytes = new byte[shared + suffix];
+        System.arraycopy(previous, 0, bytes, 0, shared);
+        if (in.readNBytes(bytes, shared, suffix) != suffix) {
+            throw new EOFException();
+        }
+        return bytes;
+    }
+
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Corrupted undo log: varint too long");
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static int readInt(InputStream in) throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+}
@@ -1,15 +1,30 @@
 package utility;
 
+import model.CliArgs;
+import model.DedupeMode;
+import model.Deduplication;
+import model.DirectorySnapshot;
+import model.ExtensionMatcher;
 import model.FileWithTime;
+import model.NameIndex;
+import model.OrderBy;
+import model.PreviewMode;
+import model.RenameMove;
+import model.RenamePlan;
+import model.ScannedFile;
 
+import java.io.Console;
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
+import java.util.function.ToIntFunction;
 import java.util.regex.Pattern;
 
 import static java.util.Comparator.comparing;
@@ -38,32 +53,233 @@ public enum RenamerUtility {
         return Integer.parseInt(m.group(1));
     }
 
+    /**
+     * Finds every directory under the given root whose name matches the folder pattern.
+     * Matching directories are not descended into.
+     *
+     * @param root          the directory to search from (included in the search)
+     * @param folderPattern regex pattern that must match the folder name
+     * @return the matching directories, sorted by path
+     * @throws IOException if an I/O error occurs
+     */
+    public List<Path> findFolders(Path root, Pattern folderPattern) throws IOException {
+        var folders = new ArrayList<Path>();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (dir.getFileName() != null && folderPattern.matcher(dir.getFileName().toString()).matches()) {
+                    folders.add(dir);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                System.err.printf("Skipping %s: %s%n", file, e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        folders.sort(null);
+        return folders;
+    }
+
     /**
      * Lists all files in the given directory that have one of the specified extensions.
      * Search is non-recursive.
      *
      * @param dir        the directory to scan
-     * @param extensions list of extensions to match (lowercase, including the dot, e.g. ".png")
+     * @param extensions the extensions to match
      * @return a list of matching file paths
      * @throws IOException if an I/O error occurs
      */
-    public List<Path> listByExtension(Path dir, List<String> extensions) throws IOException {
+    public List<Path> listByExtension(Path dir, ExtensionMatcher extensions) throws IOException {
         try (var files = Files.list(dir)) {
             return files
                 .filter(Files::isRegularFile)
-                .filter(f -> {
-                    var fileName = f.getFileName().toString().toLowerCase(Locale.ROOT);
-                    for (var extension : extensions) {
-                        if (fileName.endsWith(extension)) {
-                            return true;
-                        }
-                    }
-                    return false;
-                })
+                .filter(f -> extensions.matches(f.getFileName().toString()))
                 .toList();
         }
     }
 
+    /**
+     * Scans the given directory once, reading the attributes of every entry together
+     * with the listing. The returned snapshot holds the accepted regular files (in listing
+     * order) plus every entry by name, so sorting, planning and conflict checks
+     * don't need to go back to the file system.
+     * Search is non-recursive, symbolic links are followed like {@link Files#isRegularFile(Path, java.nio.file.LinkOption...)}.
+     *
+     * @param dir        the directory to scan
+     * @param extensions the extensions to match
+     * @return the snapshot of the directory
+     * @throws IOException if an I/O error occurs
+     */
+    public DirectorySnapshot scan(Path dir, ExtensionMatcher extensions) throws IOException {
+        try (var phase = RunStats.INSTANCE.phase("scan", dir)) {
+            var snapshot = walk(dir, extensions);
+            phase.files(snapshot.entries().size());
+            return snapshot;
+        }
+    }
+
+    private DirectorySnapshot walk(Path dir, ExtensionMatcher extensions) throws IOException {
+        var scanned = new ArrayList<ScannedFile>();
+        try (var handle = DirectoryHandle.open(dir)) {
+            for (var file : handle.entries()) {
+                scanned.add(scanFile(handle, file));
+            }
+        }
+        return snapshotOf(dir, scanned, extensions);
+    }
+
+    /**
+     * Same as {@link #scan(Path, ExtensionMatcher)}, but with {@code ioParallelism > 1} the attributes
+     * are read on virtual threads with at most {@code ioParallelism} reads in flight,
+     * which hides the round trip of each read on network file systems.
+     *
+     * @param dir           the directory to scan
+     * @param extensions    the extensions to match
+     * @param ioParallelism maximum number of attribute reads in flight
+     * @return the snapshot of the directory
+     * @throws IOException if an I/O error occurs
+     */
+    public DirectorySnapshot scan(Path dir, ExtensionMatcher extensions, int ioParallelism) throws IOException {
+        if (ioParallelism <= 1) {
+            return scan(dir, extensions);
+        }
+
+        var listing = new ArrayList<Path>();
+        try (var handle = DirectoryHandle.open(dir)) {
+            try (var phase = RunStats.INSTANCE.phase("list", dir)) {
+                handle.entries().forEach(listing::add);
+                phase.files(listing.size());
+            }
+            try (var phase = RunStats.INSTANCE.phase("attributes", dir)) {
+                var scanned = ParallelIo.INSTANCE.map(listing, ioParallelism, file -> scanFile(handle, file));
+                phase.files(scanned.size());
+                return snapshotOf(dir, scanned, extensions);
+            }
+        }
+    }
+
+    /**
+     * Reads the attributes of a single file, like {@link #scan(Path, ExtensionMatcher)} does for every entry.
+     *
+     * @param file the file to read
+     * @return the scanned file, of type OTHER if its attributes can't be read
+     */
+    public ScannedFile scanFile(Path file) {
+        return scanFile(null, file);
+    }
+
+    /**
+     * Same as {@link #scanFile(Path)} for an entry of an open directory, read relative to its handle.
+     *
+     * @param handle the directory of the file, null to read it by its path
+     * @param file   the file to read
+     * @return the scanned file, of type OTHER if its attributes can't be read
+     */
+    public ScannedFile scanFile(DirectoryHandle handle, Path file) {
+        long start = System.nanoTime();
+        try {
+            var attrs = handle != null
+                ? handle.readAttributes(file)
+                : Files.readAttributes(file, BasicFileAttributes.class);
+            return toScannedFile(file, attrs);
+        } catch (IOException e) {
+            return unreadable(file);
+        } finally {
+            RunStats.INSTANCE.operation("readAttributes", start);
+        }
+    }
+
+    /**
+     * Looks for byte-identical files in the snapshot, see {@link DuplicateFinder#find(List, int)},
+     * and prints them. Of every group the oldest copy is kept, depending on the mode the
+     * other copies are renamed anyway (REPORT), left out of the renaming (SKIP) or left out
+     * and listed for deletion (DELETE). Nothing is deleted here: the copies are removed by
+     * {@link #deleteDuplicates(Path, List, boolean)} once the run is confirmed.
+     *
+     * @param snapshot      the directory snapshot
+     * @param mode          what to do with the duplicates
+     * @param ioParallelism maximum number of reads in flight requested by the user
+     * @return the snapshot to plan the renaming on and the copies to delete
+     * @throws IOException if an I/O error occurs
+     */
+    public Deduplication dedupe(DirectorySnapshot snapshot, DedupeMode mode, int ioParallelism) throws IOException {
+        if (mode == DedupeMode.NONE) {
+            return Deduplication.none(snapshot);
+        }
+
+        List<List<ScannedFile>> groups;
+        try (var phase = RunStats.INSTANCE.phase("dedupe", snapshot.dir())) {
+            groups = DuplicateFinder.INSTANCE.find(snapshot.files(), ioParallelism);
+            phase.files(snapshot.files().size());
+        }
+        if (groups.isEmpty()) {
+            System.out.printf("No duplicate files in %s%n", snapshot.dir());
+            return Deduplication.none(snapshot);
+        }
+
+        var copies = new LinkedHashSet<String>();
+        long wasted = 0;
+        var report = new StringBuilder();
+        for (var group : groups) {
+            report.append("\n  ").append(group.getFirst().fileName());
+            for (var copy : group.subList(1, group.size())) {
+                report.append("\n    = ").append(copy.fileName());
+                copies.add(copy.fileName());
+                wasted += copy.size();
+            }
+        }
+        System.out.printf("%d duplicate files (%d groups, %d bytes) in %s, oldest copy first:%s%n",
+            copies.size(), groups.size(), wasted, snapshot.dir(), report);
+        if (mode == DedupeMode.REPORT) {
+            return Deduplication.none(snapshot);
+        }
+
+        var files = new ArrayList<ScannedFile>(snapshot.files().size() - copies.size());
+        for (var file : snapshot.files()) {
+            if (!copies.contains(file.fileName())) {
+                files.add(file);
+            }
+        }
+        if (mode == DedupeMode.SKIP) {
+            System.out.printf("%d duplicate files left out of the renaming%n", copies.size());
+            return Deduplication.none(new DirectorySnapshot(snapshot.dir(), List.copyOf(files), snapshot.entries()));
+        }
+
+        System.out.printf("%d duplicate files will be deleted, the run can't be undone%n", copies.size());
+        // the names of the copies are free for the plan, they are deleted before the moves
+        var entries = new HashMap<>(snapshot.entries());
+        entries.keySet().removeAll(copies);
+        return new Deduplication(
+            new DirectorySnapshot(snapshot.dir(), List.copyOf(files), Collections.unmodifiableMap(entries)),
+            List.copyOf(copies));
+    }
+
+    /**
+     * Deletes the copies found by {@link #dedupe(DirectorySnapshot, DedupeMode, int)} in DELETE mode.
+     *
+     * @param dir       the directory of the copies
+     * @param deletions the names of the copies
+     * @param dryRun    true to only print how many copies would be deleted
+     * @throws IOException if a copy can't be deleted
+     */
+    public void deleteDuplicates(Path dir, List<String> deletions, boolean dryRun) throws IOException {
+        if (deletions.isEmpty()) {
+            return;
+        }
+        if (dryRun) {
+            System.out.printf("%nDry run enabled, %d duplicate files were not deleted", deletions.size());
+            return;
+        }
+        for (var copy : deletions) {
+            Files.delete(dir.resolve(copy));
+        }
+        System.out.printf("%n%d duplicate files deleted", deletions.size());
+    }
+
     /**
      * Sorts a list of files by creation time (oldest first).
      * If creation time is not available, falls back to epoch (1970-01-01).
@@ -80,10 +296,12 @@ public enum RenamerUtility {
                     if (creationTime != null) {
                         return new FileWithTime(file, creationTime.toInstant());
                     }
+                    RunStats.INSTANCE.fallback("creationTimeEpoch", 1);
                     return new FileWithTime(file, Instant.EPOCH);
                 } catch (IOException e) {
                     System.err.printf("Error reading attributes file from %s, " +
                         "default 1970-01-01T00:00:00Z", file.getFileName());
+                    RunStats.INSTANCE.fallback("creationTimeEpoch", 1);
                     return new FileWithTime(file, Instant.EPOCH);
                 }
             })
@@ -92,6 +310,26 @@ public enum RenamerUtility {
             .toList();
     }
 
+    /**
+     * Sorts the accepted files of a snapshot by creation time (oldest first),
+     * using the attributes read during the scan.
+     *
+     * @param snapshot the directory snapshot
+     * @return a new list of paths sorted by creation time
+     */
+    public List<Path> sortFilesByCreationTime(DirectorySnapshot snapshot) {
+        var files = snapshot.files();
+        var keys = new long[files.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = files.get(i).creationTime();
+        }
+        var sorted = new ArrayList<Path>(keys.length);
+        for (var index : sortedOrder(keys)) {
+            sorted.add(files.get(index).path());
+        }
+        return sorted;
+    }
+
     /**
      * Creates a mapping from old file paths to new file paths using a sequential numbering strategy.
      *
@@ -112,85 +350,965 @@ public enum RenamerUtility {
             map.put(file, file.resolveSibling(applyName));
         }
 
-        System.out.printf("Preview rename (%d file):", map.size());
-        map.forEach(
-            (oldName, newName) -> System.out.printf(
-                "\n%s -> %s",
-                oldName.getFileName(),
-                newName.getFileName())
-        );
-
+        preview(RenamePlan.of(map), PreviewMode.FULL);
         return map;
     }
 
     /**
-     * Checks for potential conflicts in the renaming map:
-     * - Duplicate target file names
-     * - Target file already exists on disk and is not the same file as the source
+     * Creates the rename plan of the accepted files of a snapshot: files are sorted by
+     * creation time (oldest first) and numbered sequentially from the start number.
+     * Sorting works on the primitive keys read during the scan, names are kept relative
+     * to the snapshot directory. Unlike {@link #mapSequence(List, int, BiFunction)} nothing is
+     * printed, see {@link #preview(RenamePlan, PreviewMode)}.
+     *
+     * @param snapshot             the directory snapshot
+     * @param startSequenceNumber  starting number for the sequence
+     * @param newNameSequenceFn    function that generates the new file name given the sequence number and original name
+     * @return the plan, in sequence order
+     */
+    public RenamePlan mapSequence(
+            DirectorySnapshot snapshot,
+            int startSequenceNumber,
+            SequenceNameFunction newNameSequenceFn
+    ) {
+        var files = snapshot.files();
+        var keys = new long[files.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = files.get(i).creationTime();
+        }
+        return mapSequence(snapshot, keys, startSequenceNumber, newNameSequenceFn);
+    }
+
+    /**
+     * Same as {@link #mapSequence(DirectorySnapshot, int, SequenceNameFunction)}, with the
+     * files sorted by the given keys instead (ascending, equal keys keep the listing order).
+     *
+     * @param snapshot             the directory snapshot
+     * @param keys                 sort key of every accepted file, in snapshot order
+     * @param startSequenceNumber  starting number for the sequence
+     * @param newNameSequenceFn    function that generates the new file name given the sequence number and original name
+     * @return the plan, in sequence order
+     */
+    public RenamePlan mapSequence(
+            DirectorySnapshot snapshot,
+            long[] keys,
+            int startSequenceNumber,
+            SequenceNameFunction newNameSequenceFn
+    ) {
+        var names = fileNames(snapshot);
+        int[] order;
+        try (var phase = RunStats.INSTANCE.phase("sort", snapshot.dir())) {
+            order = sortedOrder(keys);
+            phase.files(order.length);
+        }
+        return plan(snapshot, names, keys, order, startSequenceNumber, newNameSequenceFn);
+    }
+
+    /**
+     * Same as {@link #mapSequence(DirectorySnapshot, long[], int, SequenceNameFunction)}, merging the
+     * new files into the existing sequence instead of sorting every file again: files whose name
+     * already carries a sequence number keep their relative order (by that number) and the other
+     * files are merged in by key, after the files in sequence with an equal key.
+     * A re-run on a folder already renamed therefore maps most files to their current name,
+     * and only the new files and the files they shift get moved.
+     *
+     * @param snapshot            the directory snapshot
+     * @param keys                sort key of every accepted file, in snapshot order
+     * @param startSequenceNumber starting number for the sequence
+     * @param newNameSequenceFn   function that generates the new file name given the sequence number and original name
+     * @param sequenceOf          sequence number carried by a file name, negative if the file is not in sequence yet
+     * @return the plan, in sequence order
+     */
+    public RenamePlan mergeSequence(
+            DirectorySnapshot snapshot,
+            long[] keys,
+            int startSequenceNumber,
+            SequenceNameFunction newNameSequenceFn,
+            ToIntFunction<String> sequenceOf
+    ) {
+        var names = fileNames(snapshot);
+        int[] order;
+        try (var phase = RunStats.INSTANCE.phase("sort", snapshot.dir())) {
+            var sequences = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                sequences[i] = sequenceOf.applyAsInt(names[i]);
+            }
+            order = mergedOrder(keys, sequences);
+            phase.files(order.length);
+        }
+        return plan(snapshot, names, keys, order, startSequenceNumber, newNameSequenceFn);
+    }
+
+    /**
+     * Prints how a re-run changes the sequence: files kept with their name, files in sequence
+     * moved to another number, new files.
+     *
+     * @param plan       the plan
+     * @param sequenceOf sequence number carried by a file name, negative if the file is not in sequence yet
+     * @return the number of files kept
+     */
+    public int reportSequence(RenamePlan plan, ToIntFunction<String> sequenceOf) {
+        int kept = 0;
+        int shifted = 0;
+        for (int i = 0; i < plan.size(); i++) {
+            if (plan.isIdentity(i)) {
+                kept++;
+            } else if (sequenceOf.applyAsInt(plan.sourceName(i)) >= 0) {
+                shifted++;
+            }
+        }
+        System.out.printf("%nKept %d file, shifted %d, added %d%n", kept, shifted, plan.size() - kept - shifted);
+        return kept;
+    }
+
+    private String[] fileNames(DirectorySnapshot snapshot) {
+        var files = snapshot.files();
+        var names = new String[files.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = files.get(i).fileName();
+        }
+        return names;
+    }
+
+    private RenamePlan plan(DirectorySnapshot snapshot, String[] names, long[] keys, int[] order,
+                            int startSequenceNumber, SequenceNameFunction newNameSequenceFn) {
+        try (var phase = RunStats.INSTANCE.phase("naming", snapshot.dir())) {
+            var plan = RenamePlan.builder(snapshot.dir(), names, names.length);
+            var newName = new StringBuilder(64);
+            var num = startSequenceNumber;
+            for (var index : order) {
+                newName.setLength(0);
+                newNameSequenceFn.appendTo(newName, num, names[index], keys[index]);
+                plan.add(index, keys[index], num, newName);
+                num++;
+            }
+            phase.files(order.length);
+            return plan.build();
+        }
+    }
+
+    /**
+     * Computes the sort key of every accepted file of a snapshot.
+     * With {@link OrderBy#EXIF} the EXIF headers are read in parallel on virtual threads
+     * (at least one read per processor in flight), files without a readable
+     * DateTimeOriginal fall back to their creation time.
+     *
+     * @param snapshot      the directory snapshot
+     * @param orderBy       the ordering
+     * @param ioParallelism maximum number of reads in flight requested by the user
+     * @return the keys, in snapshot order
+     * @throws IOException if an I/O error occurs
+     */
+    public long[] sortKeys(DirectorySnapshot snapshot, OrderBy orderBy, int ioParallelism) throws IOException {
+        return sortKeys(snapshot, orderBy, ioParallelism, null);
+    }
+
+    /**
+     * Same as {@link #sortKeys(DirectorySnapshot, OrderBy, int)}, reading the EXIF keys
+     * of unchanged files from the cache instead of their headers. The cache is updated
+     * and saved (without the files no longer in the directory) before returning.
+     *
+     * @param cache the metadata cache of the directory, null to read every header
+     */
+    public long[] sortKeys(DirectorySnapshot snapshot, OrderBy orderBy, int ioParallelism, MetadataCache cache)
+            throws IOException {
+        var files = snapshot.files();
+        var keys = new long[files.size()];
+        if (orderBy != OrderBy.EXIF) {
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = files.get(i).creationTime();
+            }
+            return keys;
+        }
+
+        int parallelism = Math.max(ioParallelism, Runtime.getRuntime().availableProcessors());
+        List<Long> exifKeys;
+        try (var phase = RunStats.INSTANCE.phase("exifKeys", snapshot.dir())) {
+            exifKeys = ParallelIo.INSTANCE.map(files, parallelism, file -> {
+                var cached = cache != null ? cache.exifKey(file) : MetadataCache.MISSING;
+                if (cached != MetadataCache.MISSING) {
+                    return cached;
+                }
+                long exifKey;
+                long start = System.nanoTime();
+                try {
+                    exifKey = ExifReader.INSTANCE.dateTimeOriginal(file.path());
+                } catch (IOException e) {
+                    return ExifReader.NOT_AVAILABLE;
+                } finally {
+                    RunStats.INSTANCE.operation("exifRead", start);
+                }
+                if (cache != null) {
+                    cache.putExifKey(file, exifKey);
+                }
+                return exifKey;
+            });
+            phase.files(files.size());
+        }
+        if (cache != null) {
+            try (var phase = RunStats.INSTANCE.phase("cacheSave", snapshot.dir())) {
+                cache.save(snapshot);
+                phase.files(files.size());
+            }
+        }
+
+        int fallbacks = 0;
+        for (int i = 0; i < keys.length; i++) {
+            long exifKey = exifKeys.get(i);
+            if (exifKey == ExifReader.NOT_AVAILABLE) {
+                keys[i] = files.get(i).creationTime();
+                fallbacks++;
+            } else {
+                keys[i] = exifKey;
+            }
+        }
+        if (fallbacks > 0) {
+            System.out.printf("%d file without EXIF DateTimeOriginal, ordered by creation time%n", fallbacks);
+            RunStats.INSTANCE.fallback("exifToCreationTime", fallbacks);
+        }
+        return keys;
+    }
+
+    /**
+     * Prints the preview of a rename plan, see {@link PreviewPrinter}.
+     *
+     * @param plan the plan to print
+     * @param mode how much of the plan to print, and where
+     */
+    public void preview(RenamePlan plan, PreviewMode mode) {
+        PreviewPrinter.INSTANCE.print(plan, mode);
+    }
+
+    /**
+     * Same as {@link #checkConflicts(RenamePlan, DirectorySnapshot)} for a renaming map,
+     * against a fresh listing of its directory.
      *
      * @param oldNameToNewNameMap map of original file path -> new file path
      * @throws IllegalStateException if a conflict is detected
      */
     public void checkConflicts(Map<Path, Path> oldNameToNewNameMap) {
-        var seen = new HashSet<String>();
-        oldNameToNewNameMap.forEach((oldPath, newPath) -> {
-            var newFileName = newPath.getFileName().toString();
-            if (!seen.add(newFileName)) {
+        if (oldNameToNewNameMap.isEmpty()) {
+            return;
+        }
+        var plan = RenamePlan.of(oldNameToNewNameMap);
+        try {
+            // one listing of the directory instead of a probe per target
+            checkConflicts(plan, scan(plan.dir(), ExtensionMatcher.of(List.of())));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Same as {@link #checkConflicts(RenamePlan, DirectorySnapshot)} for a renaming map.
+     *
+     * @param oldNameToNewNameMap map of original file path -> new file path
+     * @param snapshot            snapshot of the directory the files live in
+     * @throws IllegalStateException if a conflict is detected
+     */
+    public void checkConflicts(Map<Path, Path> oldNameToNewNameMap, DirectorySnapshot snapshot) {
+        checkConflicts(RenamePlan.of(oldNameToNewNameMap), snapshot);
+    }
+
+    /**
+     * Checks for potential conflicts in the rename plan against a directory snapshot.
+     * The snapshot holds every entry of the directory, accepted or not, so the checks
+     * are lookups in name indexes:
+     * - Duplicate target file names
+     * - Target file already exists in the snapshot, is not the same file as the source
+     *   and is not going to be renamed itself
+     * - Target differing only by case from another target or an existing name: the file system
+     *   is probed once to know whether it ignores case, and if it does such targets collide
+     *   like above and the plan is switched to {@link RenamePlan#ignoreCase()}
+     * Otherwise the file system is only touched to compare two files when it has no file keys.
+     *
+     * @param plan     the rename plan
+     * @param snapshot snapshot of the directory the files live in
+     * @throws IllegalStateException if a conflict is detected
+     */
+    public void checkConflicts(RenamePlan plan, DirectorySnapshot snapshot) {
+        try (var phase = RunStats.INSTANCE.phase("conflictCheck", plan.dir())) {
+            var targets = new String[plan.size()];
+            for (int i = 0; i < targets.length; i++) {
+                targets[i] = plan.targetName(i);
+            }
+            checkConflicts(plan, snapshot, targets);
+            phase.files(plan.size());
+        }
+    }
+
+    private void checkConflicts(RenamePlan plan, DirectorySnapshot snapshot, String[] targets) {
+        var targetIndex = NameIndex.of(targets, false);
+        for (int i = 0; i < targets.length; i++) {
+            var newFileName = targets[i];
+            if (targetIndex.indexOf(newFileName) != i) {
                 throw new IllegalStateException("Duplicate target file name: %s".formatted(newFileName));
             }
 
+            var existing = snapshot.entry(newFileName);
+            if (existing != null
+                    && plan.positionOfSource(newFileName) < 0
+                    && !isSameFile(snapshot.entry(plan.sourceName(i)), existing)) {
+                throw new IllegalStateException("File %s already exist in this directory".formatted(plan.target(i)));
+            }
+        }
+
+        var existingNames = snapshot.entries().keySet().toArray(String[]::new);
+        var existingIgnoringCase = NameIndex.of(existingNames, true);
+        var targetsIgnoringCase = NameIndex.of(targets, true);
+        boolean ambiguous = false;
+        for (int i = 0; i < targets.length && !ambiguous; i++) {
+            ambiguous = existingIgnoringCase.indexOfOtherCase(targets[i]) >= 0
+                || targetsIgnoringCase.indexOfOtherCase(targets[i]) >= 0;
+        }
+        if (!ambiguous || !isCaseInsensitive(snapshot)) {
+            return;
+        }
+
+        plan.ignoreCase();
+        for (int i = 0; i < targets.length; i++) {
+            int other = targetsIgnoringCase.indexOfOtherCase(targets[i]);
+            if (other >= 0) {
+                throw new IllegalStateException("Target file names %s and %s differ only by case"
+                    .formatted(targets[other], targets[i]));
+            }
+
+            int existing = existingIgnoringCase.indexOfOtherCase(targets[i]);
+            if (existing >= 0
+                    && plan.positionOfSource(existingNames[existing]) < 0
+                    && !isSameFile(snapshot.entry(plan.sourceName(i)), snapshot.entry(existingNames[existing]))) {
+                throw new IllegalStateException("File %s already exist in this directory as %s"
+                    .formatted(plan.target(i), existingNames[existing]));
+            }
+        }
+    }
+
+    /**
+     * Tells whether the file system of the snapshot ignores case, looking up an existing
+     * name with its case swapped. Only called when a plan depends on it.
+     */
+    private boolean isCaseInsensitive(DirectorySnapshot snapshot) {
+        for (var name : snapshot.entries().keySet()) {
+            var swapped = swapCase(name);
+            if (swapped.equals(name)) {
+                continue;
+            }
+            if (snapshot.entry(swapped) != null) {
+                return false; // both listed
+            }
+            var path = snapshot.dir().resolve(name);
+            var other = snapshot.dir().resolve(swapped);
             try {
-                if (Files.exists(newPath) && !Files.isSameFile(oldPath, newPath)) {
-                    throw new IllegalStateException("File %s already exist in this directory".formatted(newPath));
-                }
+                return Files.exists(other) && Files.isSameFile(path, other);
             } catch (IOException e) {
                 throw new IllegalStateException(e);
             }
-        });
+        }
+        return true; // no name to tell, assume the stricter case
+    }
+
+    private static String swapCase(String name) {
+        var chars = name.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.isUpperCase(chars[i]) ? Character.toLowerCase(chars[i]) : Character.toUpperCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Same as {@link #planMoves(RenamePlan)} for a renaming map.
+     *
+     * @param oldNameToNewNameMap map of original file path -> new file path, targets must be unique
+     * @return the moves to execute, in order
+     */
+    public List<RenameMove> planMoves(Map<Path, Path> oldNameToNewNameMap) {
+        return oldNameToNewNameMap.isEmpty() ? List.of() : planMoves(RenamePlan.of(oldNameToNewNameMap));
+    }
+
+    /**
+     * Plans the moves needed to apply the rename plan, treating it as a permutation graph:
+     * - identity mappings are dropped
+     * - chains (A -> B, B -> C, C free) are moved directly, starting from the free end
+     * - a temporary name in the same directory is used only to break real cycles (A -> B, B -> A)
+     * Every file is therefore moved once, except one file per cycle that is moved twice.
+     *
+     * @param plan the rename plan, targets must be unique
+     * @return the moves to execute, in order
+     */
+    public List<RenameMove> planMoves(RenamePlan plan) {
+        var done = new boolean[plan.size()];
+        for (int i = 0; i < done.length; i++) {
+            done[i] = plan.isIdentity(i);
+        }
+
+        var moves = new ArrayList<RenameMove>(plan.size());
+        var chain = new int[16];
+        for (int start = 0; start < done.length; start++) {
+            if (done[start]) {
+                continue;
+            }
+            int length = 0;
+            chain[length++] = start;
+            int next = plan.positionOfSource(plan.targetName(start));
+            while (next >= 0 && !done[next] && next != start) {
+                if (length == chain.length) {
+                    chain = Arrays.copyOf(chain, length * 2);
+                }
+                chain[length++] = next;
+                next = plan.positionOfSource(plan.targetName(next));
+            }
+
+            if (next == start) {
+                // cycle: park the first file, shift the others, then move it to its place
+                var tmp = plan.dir().resolve(UUID.randomUUID() + ".tmp");
+                moves.add(new RenameMove(plan.source(start), tmp));
+                for (int i = length - 1; i > 0; i--) {
+                    moves.add(new RenameMove(plan.source(chain[i]), plan.target(chain[i])));
+                }
+                moves.add(new RenameMove(tmp, plan.target(start)));
+            } else {
+                // chain: the last target is free, move backwards from there
+                for (int i = length - 1; i >= 0; i--) {
+                    moves.add(new RenameMove(plan.source(chain[i]), plan.target(chain[i])));
+                }
+            }
+            for (int i = 0; i < length; i++) {
+                done[chain[i]] = true;
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * Same as {@link #planPhases(RenamePlan)} for a renaming map.
+     *
+     * @param oldNameToNewNameMap map of original file path -> new file path, targets must be unique
+     * @return the two phases, in order
+     */
+    public List<List<RenameMove>> planPhases(Map<Path, Path> oldNameToNewNameMap) {
+        return oldNameToNewNameMap.isEmpty()
+            ? List.of(List.of(), List.of())
+            : planPhases(RenamePlan.of(oldNameToNewNameMap));
+    }
+
+    /**
+     * Plans the moves needed to apply the rename plan as two phases of independent moves,
+     * so that the moves of each phase can run concurrently:
+     * 1. Files whose target is free are moved there directly, the others to a unique temporary name.
+     * 2. Temporary files are moved to their target, freed during the first phase.
+     * Identity mappings are dropped.
+     *
+     * @param plan the rename plan, targets must be unique
+     * @return the two phases, in order
+     */
+    public List<List<RenameMove>> planPhases(RenamePlan plan) {
+        var firstPhase = new ArrayList<RenameMove>(plan.size());
+        var secondPhase = new ArrayList<RenameMove>();
+        for (int i = 0; i < plan.size(); i++) {
+            if (plan.isIdentity(i)) {
+                continue;
+            }
+            if (plan.positionOfSource(plan.targetName(i)) >= 0) {
+                var tmp = plan.dir().resolve(UUID.randomUUID() + ".tmp");
+                firstPhase.add(new RenameMove(plan.source(i), tmp));
+                secondPhase.add(new RenameMove(tmp, plan.target(i)));
+            } else {
+                firstPhase.add(new RenameMove(plan.source(i), plan.target(i)));
+            }
+        }
+        return List.of(firstPhase, secondPhase);
     }
 
     /**
-     * Performs a safe two-phase rename to avoid file overwrite conflicts:
-     * 1. Moves each original file to a unique temporary file in the same directory.
-     * 2. Moves each temporary file to its final target name.
+     * Performs a safe rename following {@link #planMoves(Map)}: every target is free
+     * when its move runs, so nothing gets overwritten, and files already carrying
+     * their new name are not touched.
+     * The moves are recorded in a {@link RenameJournal} inside the directory, so an
+     * interrupted run can be completed or rolled back with {@link #recover(Path, boolean)}.
      *
      * @param oldNameToNewNameMap map of original file path -> new file path
      */
     public void renames(Map<Path, Path> oldNameToNewNameMap, boolean dryRun) {
+        renames(oldNameToNewNameMap, dryRun, 1);
+    }
+
+    /**
+     * Same as {@link #renames(RenamePlan, boolean, int)} for a renaming map.
+     *
+     * @param oldNameToNewNameMap map of original file path -> new file path
+     * @param ioParallelism       maximum number of moves in flight
+     */
+    public void renames(Map<Path, Path> oldNameToNewNameMap, boolean dryRun, int ioParallelism) {
+        if (oldNameToNewNameMap.isEmpty()) {
+            return;
+        }
+        renames(RenamePlan.of(oldNameToNewNameMap), dryRun, ioParallelism);
+    }
+
+    /**
+     * Performs a safe rename of the plan, see {@link #renames(Map, boolean)}.
+     * With {@code ioParallelism > 1} the moves follow {@link #planPhases(RenamePlan)} and
+     * the moves of each phase run on virtual threads, with at most {@code ioParallelism}
+     * moves in flight and a barrier between the phases.
+     *
+     * @param plan          the rename plan
+     * @param ioParallelism maximum number of moves in flight
+     * @return the number of files that got a new name, 0 in a dry run
+     */
+    public int renames(RenamePlan plan, boolean dryRun, int ioParallelism) {
+        return renames(plan, List.of(), dryRun, ioParallelism);
+    }
+
+    /**
+     * Same as {@link #renames(RenamePlan, boolean, int)} for a run that also deleted files:
+     * they are recorded in the undo log, which then refuses to undo the run.
+     *
+     * @param plan          the rename plan
+     * @param deleted       names of the files deleted by the run
+     * @param ioParallelism maximum number of moves in flight
+     * @return the number of files that got a new name, 0 in a dry run
+     */
+    public int renames(RenamePlan plan, List<String> deleted, boolean dryRun, int ioParallelism) {
         if (dryRun) {
             System.out.printf("\nDry run enabled, no files were renamed");
-            return;
+            return 0;
         }
 
-        var tmpMap = new LinkedHashMap<Path, Path>();
+        List<List<RenameMove>> phases;
+        try (var phase = RunStats.INSTANCE.phase("planMoves", plan.dir())) {
+            phases = ioParallelism > 1
+                ? planPhases(plan)
+                : List.of(planMoves(plan));
+            phase.files(plan.size());
+        }
+        var moves = new ArrayList<RenameMove>();
+        var phaseEnds = new ArrayList<Integer>();
+        for (var phase : phases) {
+            moves.addAll(phase);
+            phaseEnds.add(moves.size());
+        }
+        if (moves.isEmpty()) {
+            System.out.printf("\nAll %d file already have their new name", plan.size());
+            if (!deleted.isEmpty()) {
+                writeUndoLog(plan, deleted); // the log of the previous run no longer applies
+            }
+            return 0;
+        }
+
+        var dir = plan.dir();
+        try (var handle = DirectoryHandle.open(dir);
+             var journal = ioParallelism > 1
+                ? RenameJournal.create(dir, moves, phaseEnds)
+                : RenameJournal.create(dir, moves)) {
+            if (ioParallelism > 1) {
+                for (int i = 0; i < phases.size(); i++) {
+                    try (var phase = RunStats.INSTANCE.phase("movesPhase" + (i + 1), dir)) {
+                        applyPhase(handle, phases.get(i), ioParallelism);
+                        journal.checkpoint(phaseEnds.get(i));
+                        phase.files(phases.get(i).size());
+                    }
+                }
+            } else {
+                try (var phase = RunStats.INSTANCE.phase("moves", dir)) {
+                    applyMoves(handle, moves, 0, journal);
+                    phase.files(moves.size());
+                }
+            }
+            journal.complete();
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing rename journal %s".formatted(RenameJournal.fileIn(dir)), e);
+        }
+        int renamed = plan.renamedCount();
+        System.out.printf("\n%d file renamed with %d moves", renamed, moves.size());
+        writeUndoLog(plan, deleted);
+        return renamed;
+    }
+
+    private void writeUndoLog(RenamePlan plan, List<String> deleted) {
+        try {
+            RenameLog.write(plan, deleted);
+        } catch (IOException e) {
+            System.err.printf("\nUndo log not written: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Renames back the files of the run recorded in an undo log ({@link RenameLog}): the log is
+     * read in one pass and replayed with the same safe moves as {@link #renames(RenamePlan, boolean, int)},
+     * without scanning or sorting the directory. Every current name must still exist and every
+     * original name must be free, or freed by the undo itself.
+     * The undo writes its own log, so undoing it renames the files again.
+     *
+     * @param args the command line, with the log in {@link CliArgs#undo()}
+     * @return the number of files renamed back
+     * @throws IOException if the log or the directory can't be read
+     */
+    public int undo(CliArgs args) throws IOException {
+        var dir = args.dir();
+        recover(dir, args.rollback());
+
+        RenamePlan plan;
+        try (var phase = RunStats.INSTANCE.phase("readUndoLog", dir)) {
+            plan = RenameLog.read(args.undo(), dir);
+            phase.files(plan.size());
+        }
+        if (plan.isEmpty()) {
+            System.out.printf("Nothing to undo in %s", args.undo());
+            return 0;
+        }
+        preview(plan, args.preview());
+        try (var phase = RunStats.INSTANCE.phase("undoChecks", dir)) {
+            checkUndo(plan, args.ioParallelism());
+            phase.files(plan.size());
+        }
+        int renamed = renames(plan, args.dryRun(), args.ioParallelism());
+        if (!args.dryRun()) {
+            System.out.printf("\nUndo completed (directory %s).", dir.getFileName());
+        }
+        return renamed;
+    }
+
+    /**
+     * Probes the names of an undo plan: the checks {@link #checkConflicts(RenamePlan, DirectorySnapshot)}
+     * does on a snapshot, without listing the directory.
+     */
+    private void checkUndo(RenamePlan plan, int ioParallelism) throws IOException {
+        var sourceNames = new String[plan.size()];
+        for (int i = 0; i < sourceNames.length; i++) {
+            sourceNames[i] = plan.sourceName(i);
+        }
+        var sources = NameIndex.of(sourceNames, false);
+        var sourcesIgnoringCase = NameIndex.of(sourceNames, true);
+        var positions = new ArrayList<Integer>(sourceNames.length);
+        for (int i = 0; i < sourceNames.length; i++) {
+            positions.add(i);
+        }
 
-        oldNameToNewNameMap.forEach((oldPath, newPath) -> {
-            var tmp = oldPath.resolveSibling(UUID.randomUUID() + ".tmp");
+        List<Boolean> sameFileOtherCase;
+        try (var handle = DirectoryHandle.open(plan.dir())) {
+            sameFileOtherCase = ParallelIo.INSTANCE.map(positions, Math.max(1, ioParallelism), i -> {
+                if (!handle.exists(plan.source(i))) {
+                    throw new IllegalStateException("File %s is no longer in the directory, the run can't be undone"
+                        .formatted(plan.source(i)));
+                }
+                var original = plan.targetName(i);
+                if (sources.indexOf(original) >= 0 || !handle.exists(plan.target(i))) {
+                    return false;
+                }
+                int other = sourcesIgnoringCase.indexOf(original);
+                if (other >= 0 && Files.isSameFile(plan.source(other), plan.target(i))) {
+                    return true; // a file of the plan, found ignoring case
+                }
+                throw new IllegalStateException("File %s already exist in this directory".formatted(plan.target(i)));
+            });
+        }
+        if (sameFileOtherCase.contains(true)) {
+            plan.ignoreCase();
+        }
+    }
+
+    /**
+     * Completes or rolls back a rename run that was interrupted in the given directory,
+     * as recorded by its {@link RenameJournal}. Does nothing when there is no journal.
+     * A rollback already in progress is always continued.
+     *
+     * @param dir      the directory to recover
+     * @param rollback true to restore the original names, false to finish the planned renames
+     * @throws IOException if the journal can't be read or updated
+     */
+    public void recover(Path dir, boolean rollback) throws IOException {
+        var state = RenameJournal.read(dir);
+        if (state == null) {
+            return;
+        }
+        try (var phase = RunStats.INSTANCE.phase("recovery", dir);
+             var handle = DirectoryHandle.open(dir)) {
+            recover(handle, state, rollback);
+            phase.files(state.moves().size());
+        }
+    }
+
+    private void recover(DirectoryHandle handle, RenameJournal.State state, boolean rollback) throws IOException {
+        var dir = handle.dir();
+        var moves = state.moves();
+        // moves of a parallel phase may complete out of order, each one is checked on its own
+        int phaseEnd = state.phaseEnd(state.done());
+        if (!state.planned() && !rollback && !state.rollingBack()) {
+            System.out.printf("The interrupted run in %s was still planning its moves, it can only be rolled back%n", dir);
+            rollback = true;
+        }
+        if (state.rollingBack() || rollback) {
+            // moves after the last marker are undone exactly when their source is back in place
+            int undone = state.rollingBack() ? state.undone()
+                : phaseEnd >= 0 ? phaseEnd
+                : firstPendingMove(handle, moves, state.done());
+            while (undone > 0 && handle.exists(moves.get(undone - 1).source())) {
+                undone--;
+            }
+            System.out.printf("Unfinished rename found in %s, rolling back %d moves%n", dir, undone);
+            try (var journal = RenameJournal.resume(state, true, undone)) {
+                for (int i = undone - 1; i >= 0; i--) {
+                    var move = moves.get(i);
+                    if (i >= state.done() && handle.exists(move.source())) {
+                        continue; // never done
+                    }
+                    move(handle, new RenameMove(move.target(), move.source()), journal, i);
+                }
+                journal.complete();
+            }
+        } else {
+            int done = phaseEnd >= 0 ? state.done() : firstPendingMove(handle, moves, state.done());
+            System.out.printf("Unfinished rename found in %s, completing moves %d to %d%n",
+                dir, done + 1, moves.size());
+            try (var journal = RenameJournal.resume(state, false, done)) {
+                for (int i = done; i < moves.size(); i++) {
+                    var move = moves.get(i);
+                    if (i < phaseEnd && !handle.exists(move.source())) {
+                        continue; // already done
+                    }
+                    move(handle, move, journal, i + 1);
+                }
+                journal.complete();
+            }
             try {
-                Files.move(oldPath, tmp, StandardCopyOption.ATOMIC_MOVE);
-                tmpMap.put(tmp, newPath);
+                RenameLog.write(dir, moves);
             } catch (IOException e) {
-                throw new RuntimeException("Error moving from original to temporary files", e);
+                System.err.printf("Undo log not written: %s%n", e.getMessage());
             }
-        });
+        }
+    }
+
+    /**
+     * Asks the user to confirm the renaming of the whole directory, the prompt of the
+     * templates that require a confirmation.
+     *
+     * @return true if the user answered Y
+     */
+    public boolean confirmRename() {
+        return cta("\nWith this command " +
+            "you're gonna rename all files inside the directory. " +
+            "Are you sure? (Y/N): ");
+    }
 
-        tmpMap.forEach((tmpPath, newPath) -> {
+    private boolean cta(String prompt) {
+        Console c = System.console();
+        if (c != null) {
+            String ans = c.readLine(prompt);
+            return ans != null && ans.trim().equalsIgnoreCase("y");
+        } else {
             try {
-                Files.move(tmpPath, newPath, StandardCopyOption.ATOMIC_MOVE);
-            } catch (IOException e) {
-                throw new RuntimeException("Error moving from temporary to new files", e);
+                System.out.print(prompt);
+                byte[] buf = new byte[128];
+                int n = System.in.read(buf);
+                String ans = n > 0 ? new String(buf, 0, n).trim() : "";
+                return ans.equalsIgnoreCase("y");
+            } catch (Exception e) {
+                return false;
             }
-        });
+        }
     }
 
     /**
-     * Checks whether a file name matches the given regular expression pattern.
+     * Checks whether a file name is a candidate for renaming: it has one of the extensions
+     * and is not one of the files written by the tool itself (journal, cache, undo log).
      *
-     * @param file             path to the file
-     * @param fileNamePattern  regex pattern to match against the file name (not the full path)
-     * @return true if the file name matches the pattern, false otherwise
+     * @param fileName   the file name
+     * @param extensions the extensions to match
+     * @return true if the file can be renamed
+     */
+    public boolean isAccepted(String fileName, ExtensionMatcher extensions) {
+        return !RenameJournal.FILE_NAME.equals(fileName)
+            && !MetadataCache.isCacheFile(fileName)
+            && !RenameLog.isLogFile(fileName)
+            && extensions.matches(fileName);
+    }
+
+    /**
+     * Executes independent moves (no move reoccupies a name vacated by another one) on virtual
+     * threads, with at most {@code ioParallelism} moves in flight. Progress is recorded by the caller.
+     *
+     * @param handle        the directory of the moves
+     * @param phase         the moves
+     * @param ioParallelism maximum number of moves in flight
+     */
+    public void applyPhase(DirectoryHandle handle, List<RenameMove> phase, int ioParallelism) {
+        try {
+            ParallelIo.INSTANCE.map(phase, ioParallelism, move -> {
+                long start = System.nanoTime();
+                try {
+                    handle.move(move.source(), move.target());
+                    return move;
+                } finally {
+                    RunStats.INSTANCE.operation("move", start);
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException("Error moving files, run again to recover (journal %s)".formatted(
+                RenameJournal.FILE_NAME), e);
+        }
+    }
+
+    private void applyMoves(DirectoryHandle handle, List<RenameMove> moves, int from, RenameJournal journal)
+        throws IOException {
+        for (int i = from; i < moves.size(); i++) {
+            move(handle, moves.get(i), journal, i + 1);
+        }
+    }
+
+    private void move(DirectoryHandle handle, RenameMove move, RenameJournal journal, int progress)
+        throws IOException {
+        journal.beforeMove(move);
+        long start = System.nanoTime();
+        try {
+            handle.move(move.source(), move.target());
+        } catch (IOException e) {
+            throw new RuntimeException("Error moving %s to %s, run again to recover (journal %s)".formatted(
+                move.source().getFileName(), move.target().getFileName(), RenameJournal.FILE_NAME), e);
+        } finally {
+            RunStats.INSTANCE.operation("move", start);
+        }
+        journal.afterMove(move, progress);
+    }
+
+    /**
+     * Moves after the last progress marker are done exactly when their source is gone.
+     */
+    private int firstPendingMove(DirectoryHandle handle, List<RenameMove> moves, int done) throws IOException {
+        while (done < moves.size() && !handle.exists(moves.get(done).source())) {
+            done++;
+        }
+        return done;
+    }
+
+    private DirectorySnapshot snapshotOf(Path dir, List<ScannedFile> scanned, ExtensionMatcher extensions) {
+        var files = new ArrayList<ScannedFile>();
+        var entries = new HashMap<String, ScannedFile>(scanned.size() * 2);
+        for (var entry : scanned) {
+            entries.put(entry.fileName(), entry);
+            if (entry.isRegularFile() && isAccepted(entry.fileName(), extensions)) {
+                files.add(entry);
+            }
+        }
+        return new DirectorySnapshot(dir, List.copyOf(files), Collections.unmodifiableMap(entries));
+    }
+
+    /**
+     * Unreadable entry (ex. broken link): not renamed, but its name is still taken.
+     */
+    private ScannedFile unreadable(Path file) {
+        RunStats.INSTANCE.fallback("unreadableEntry", 1);
+        return new ScannedFile(file, ScannedFile.Type.OTHER, 0L, 0L, 0L, null);
+    }
+
+    private ScannedFile toScannedFile(Path file, BasicFileAttributes attrs) {
+        var type = attrs.isRegularFile() ? ScannedFile.Type.REGULAR_FILE
+            : attrs.isDirectory() ? ScannedFile.Type.DIRECTORY
+            : ScannedFile.Type.OTHER;
+        var creationTime = 0L;
+        if (attrs.creationTime() != null) {
+            creationTime = attrs.creationTime().to(TimeUnit.NANOSECONDS);
+        } else {
+            RunStats.INSTANCE.fallback("creationTimeMissing", 1);
+        }
+        var lastModified = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        return new ScannedFile(file, type, attrs.size(), creationTime, lastModified, attrs.fileKey());
+    }
+
+    /**
+     * Order of {@link #mergeSequence}: files in sequence sorted by their number, the others
+     * by key, then the two runs merged by key.
      */
-    public boolean matches(Path file, Pattern fileNamePattern) {
-        return fileNamePattern.matcher(file.getFileName().toString()).matches();
+    int[] mergedOrder(long[] keys, int[] sequences) {
+        int inSequence = 0;
+        for (var sequence : sequences) {
+            if (sequence >= 0) {
+                inSequence++;
+            }
+        }
+        var sequencedIndexes = new int[inSequence];
+        var sequencedKeys = new long[inSequence];
+        var freshIndexes = new int[keys.length - inSequence];
+        var freshKeys = new long[freshIndexes.length];
+        for (int i = 0, s = 0, f = 0; i < keys.length; i++) {
+            if (sequences[i] >= 0) {
+                sequencedIndexes[s] = i;
+                sequencedKeys[s++] = sequences[i];
+            } else {
+                freshIndexes[f] = i;
+                freshKeys[f++] = keys[i];
+            }
+        }
+        var sequenced = sortedOrder(sequencedKeys);
+        var fresh = sortedOrder(freshKeys);
+
+        var order = new int[keys.length];
+        int s = 0, f = 0, out = 0;
+        while (s < sequenced.length && f < fresh.length) {
+            int existing = sequencedIndexes[sequenced[s]];
+            int added = freshIndexes[fresh[f]];
+            if (keys[added] < keys[existing]) {
+                order[out++] = added;
+                f++;
+            } else {
+                order[out++] = existing;
+                s++;
+            }
+        }
+        while (s < sequenced.length) {
+            order[out++] = sequencedIndexes[sequenced[s++]];
+        }
+        while (f < fresh.length) {
+            order[out++] = freshIndexes[fresh[f++]];
+        }
+        return order;
+    }
+
+    /**
+     * Stable sort of indexes by primitive key (merge sort), equal keys keep the listing order.
+     */
+    int[] sortedOrder(long[] keys) {
+        var order = new int[keys.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        var buffer = new int[keys.length];
+        for (int width = 1; width < order.length; width *= 2) {
+            for (int from = 0; from < order.length; from += 2 * width) {
+                int mid = Math.min(from + width, order.length);
+                int to = Math.min(from + 2 * width, order.length);
+                int left = from, right = mid, out = from;
+                while (left < mid && right < to) {
+                    buffer[out++] = keys[order[right]] < keys[order[left]] ? order[right++] : order[left++];
+                }
+                while (left < mid) {
+                    buffer[out++] = order[left++];
+                }
+                while (right < to) {
+                    buffer[out++] = order[right++];
+                }
+            }
+            var swap = order;
+            order = buffer;
+            buffer = swap;
+        }
+        return order;
+    }
+
+    private boolean isSameFile(ScannedFile source, ScannedFile target) {
+        if (source == null) {
+            return false;
+        }
+        if (source.fileName().equals(target.fileName())) {
+            return true;
+        }
+        if (source.fileKey() != null && target.fileKey() != null) {
+            return source.fileKey().equals(target.fileKey());
+        }
+        try {
+            // no file keys on this file system, only here it takes a probe to tell
+            return Files.isSameFile(source.path(), target.path());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
     }
 }
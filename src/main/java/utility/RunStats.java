@@ -0,0 +1,324 @@
+package utility;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import model.CliArgs;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instrumentation of a run: duration of every phase (scan, sort, conflict check, moves...),
+ * latency histograms of file system operations and counts of fallbacks.
+ * <p>
+ * Phases and fallbacks are also emitted as JFR events (category "Bulk Rename"), together
+ * with the operations slower than {@link #SLOW_OPERATION_NANOS}; the totals can be written
+ * as a JSON report with {@link #writeJson(Path, CliArgs)} (--stats).
+ * Recording is thread safe, folders renamed concurrently add up under the same names.
+ */
+public enum RunStats {
+    INSTANCE;
+
+    public static final long SLOW_OPERATION_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Map<String, PhaseTotals> phases = new LinkedHashMap<>();
+    private final Map<String, Histogram> operations = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> fallbacks = new ConcurrentHashMap<>();
+    private volatile Instant startedAt = Instant.now();
+    private volatile long startNanos = System.nanoTime();
+
+    /**
+     * Clears everything recorded so far, at the start of a run.
+     */
+    public void reset() {
+        synchronized (phases) {
+            phases.clear();
+        }
+        operations.clear();
+        fallbacks.clear();
+        startedAt = Instant.now();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Starts timing a phase, to be closed when the phase ends:
+     * {@code try (var phase = RunStats.INSTANCE.phase("scan", dir)) { ...; phase.files(n); }}
+     *
+     * @param name the phase name
+     * @param dir  the directory the phase works on
+     */
+    public Phase phase(String name, Path dir) {
+        return new Phase(name, dir);
+    }
+
+    /**
+     * Records the latency of a file system operation started at {@code startNanos}
+     * ({@link System#nanoTime()}).
+     *
+     * @param name       the operation name
+     * @param startNanos when the operation started
+     */
+    public void operation(String name, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        operations.computeIfAbsent(name, key -> new Histogram()).record(nanos);
+        if (nanos >= SLOW_OPERATION_NANOS) {
+            var event = new SlowOperationEvent();
+            if (event.isEnabled()) {
+                event.operation = name;
+                event.latency = nanos;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Counts files for which a fallback was used (ex. creation time instead of the EXIF date).
+     *
+     * @param name  the fallback name
+     * @param count number of files
+     */
+    public void fallback(String name, long count) {
+        if (count <= 0) {
+            return;
+        }
+        fallbacks.computeIfAbsent(name, key -> new LongAdder()).add(count);
+        var event = new FallbackEvent();
+        if (event.isEnabled()) {
+            event.fallback = name;
+            event.files = count;
+            event.commit();
+        }
+    }
+
+    /**
+     * Writes the totals recorded since the last {@link #reset()} as JSON.
+     *
+     * @param file the report file
+     * @param args the arguments of the run, copied in the report to compare runs
+     * @throws IOException if the report can't be written
+     */
+    public void writeJson(Path file, CliArgs args) throws IOException {
+        long durationNanos = System.nanoTime() - startNanos;
+        try (var out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("{\n");
+            out.write("  \"startedAt\": \"%s\",\n".formatted(startedAt));
+            out.write("  \"durationMs\": %s,\n".formatted(millis(durationNanos)));
+            out.write("  \"dir\": \"%s\",\n".formatted(PreviewPrinter.jsonEscape(args.dir().toString())));
+            out.write("  \"template\": \"%s\",\n".formatted(PreviewPrinter.jsonEscape(String.valueOf(args.template()))));
+            out.write("  \"orderBy\": \"%s\",\n".formatted(args.orderBy().name().toLowerCase()));
+            out.write("  \"ioParallelism\": %d,\n".formatted(args.ioParallelism()));
+            out.write("  \"dryRun\": %b,\n".formatted(args.dryRun()));
+            writePhases(out);
+            writeOperations(out);
+            writeFallbacks(out);
+            out.write("}\n");
+        }
+    }
+
+    private void writePhases(BufferedWriter out) throws IOException {
+        out.write("  \"phases\": [");
+        synchronized (phases) {
+            var separator = "\n";
+            for (var entry : phases.entrySet()) {
+                var totals = entry.getValue();
+                double seconds = totals.nanos / 1e9;
+                out.write(separator);
+                out.write(("    {\"name\": \"%s\", \"count\": %d, \"durationMs\": %s, \"files\": %d, "
+                    + "\"filesPerSecond\": %s}").formatted(entry.getKey(), totals.count, millis(totals.nanos),
+                    totals.files, seconds > 0 ? String.format(Locale.ROOT, "%.1f", totals.files / seconds) : "0"));
+                separator = ",\n";
+            }
+        }
+        out.write("\n  ],\n");
+    }
+
+    private void writeOperations(BufferedWriter out) throws IOException {
+        out.write("  \"operations\": [");
+        var separator = "\n";
+        for (var entry : new TreeMap<>(operations).entrySet()) {
+            var histogram = entry.getValue();
+            long count = histogram.count.sum();
+            out.write(separator);
+            out.write(("    {\"name\": \"%s\", \"count\": %d, \"totalMs\": %s, \"meanUs\": %s, "
+                + "\"p50Us\": %s, \"p90Us\": %s, \"p99Us\": %s, \"maxUs\": %s,\n     \"histogram\": [").formatted(
+                entry.getKey(), count, millis(histogram.total.sum()),
+                micros(count > 0 ? histogram.total.sum() / count : 0),
+                micros(histogram.percentile(0.50)), micros(histogram.percentile(0.90)),
+                micros(histogram.percentile(0.99)), micros(histogram.max.get())));
+            var bucketSeparator = "";
+            for (int i = 0; i < Histogram.BUCKETS; i++) {
+                long bucketCount = histogram.buckets.get(i);
+                if (bucketCount > 0) {
+                    out.write("%s{\"upToUs\": %s, \"count\": %d}".formatted(
+                        bucketSeparator, micros(Histogram.upperBound(i)), bucketCount));
+                    bucketSeparator = ", ";
+                }
+            }
+            out.write("]}");
+            separator = ",\n";
+        }
+        out.write("\n  ],\n");
+    }
+
+    private void writeFallbacks(BufferedWriter out) throws IOException {
+        out.write("  \"fallbacks\": {");
+        var separator = "\n";
+        for (var entry : new TreeMap<>(fallbacks).entrySet()) {
+            out.write(separator);
+            out.write("    \"%s\": %d".formatted(entry.getKey(), entry.getValue().sum()));
+            separator = ",\n";
+        }
+        out.write("\n  }\n");
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1e3);
+    }
+
+    /**
+     * Timing of a phase in progress.
+     */
+    public final class Phase implements AutoCloseable {
+        private final String name;
+        private final PhaseEvent event = new PhaseEvent();
+        private final long start = System.nanoTime();
+        private long files;
+
+        private Phase(String name, Path dir) {
+            this.name = name;
+            event.phase = name;
+            event.directory = dir != null ? dir.toString() : null;
+            event.begin();
+        }
+
+        /**
+         * Sets the number of files handled by the phase, used for the throughput.
+         */
+        public Phase files(long files) {
+            this.files = files;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            long nanos = System.nanoTime() - start;
+            synchronized (phases) {
+                var totals = phases.computeIfAbsent(name, key -> new PhaseTotals());
+                totals.count++;
+                totals.nanos += nanos;
+                totals.files += files;
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.files = files;
+                event.commit();
+            }
+        }
+    }
+
+    private static final class PhaseTotals {
+        private long count;
+        private long nanos;
+        private long files;
+    }
+
+    /**
+     * Latency histogram with power of two buckets: bucket i counts latencies in [2^i, 2^(i+1)) ns.
+     */
+    private static final class Histogram {
+        private static final int BUCKETS = 48; // up to ~39 hours
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private void record(long nanos) {
+            int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(Math.max(1, nanos)));
+            buckets.incrementAndGet(bucket);
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        /**
+         * @return the upper bound of the bucket holding the given percentile
+         */
+        private long percentile(double percentile) {
+            long target = (long) Math.ceil(count.sum() * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= target && seen > 0) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        private static long upperBound(int bucket) {
+            return 1L << (bucket + 1);
+        }
+    }
+
+    @Name("bulkrename.Phase")
+    @Label("Rename Phase")
+    @Category("Bulk Rename")
+    @Description("A phase of a rename run: scan, sort keys, plan, conflict check, moves")
+    static final class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Directory")
+        String directory;
+
+        @Label("Files")
+        long files;
+    }
+
+    @Name("bulkrename.SlowFileOperation")
+    @Label("Slow File Operation")
+    @Category("Bulk Rename")
+    @Description("A file system operation slower than 10 ms")
+    static final class SlowOperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    @Name("bulkrename.Fallback")
+    @Label("Fallback")
+    @Category("Bulk Rename")
+    @Description("Files handled with a fallback, ex. ordered by creation time for lack of an EXIF date")
+    static final class FallbackEvent extends Event {
+        @Label("Fallback")
+        String fallback;
+
+        @Label("Files")
+        long files;
+    }
+}
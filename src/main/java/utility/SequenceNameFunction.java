@@ -0,0 +1,21 @@
+package utility;
+
+/**
+ * Generates the new file name of a file given its sequence number.
+ */
+@FunctionalInterface
+public interface SequenceNameFunction {
+    String apply(int sequenceNumber, String sourceName);
+
+    /**
+     * Appends the new file name to a buffer, for callers generating many names in a row.
+     *
+     * @param out            the buffer
+     * @param sequenceNumber the sequence number of the file
+     * @param sourceName     the original file name
+     * @param key            the sort key of the file (epoch nanoseconds)
+     */
+    default void appendTo(StringBuilder out, int sequenceNumber, String sourceName, long key) {
+        out.append(apply(sequenceNumber, sourceName));
+    }
+}
@@ -0,0 +1,167 @@
+package utility;
+
+import model.RenamePlan;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.Semaphore;
+import java.util.stream.IntStream;
+
+/**
+ * Places the renamed files in a target directory, leaving the source directory untouched:
+ * - on the same file store every file is hard linked under its new name, no data is copied
+ * - otherwise (or when links are not supported) it is copied with {@link FileChannel#transferTo},
+ *   which lets the kernel move the bytes without going through the heap
+ * Copies are written to a ".part" file and moved to their name once complete, so an
+ * interrupted run never leaves a truncated file under a final name.
+ */
+public enum TargetTransfer {
+    INSTANCE;
+
+    private static final String PART_SUFFIX = ".part";
+    private static final int BUDGET_UNIT = 64 * 1024;
+    private static final int IN_FLIGHT_BUDGET = (int) (256L * 1024 * 1024 / BUDGET_UNIT); // 256MB
+
+    /**
+     * Links or copies every file of the plan into the target directory.
+     * Copies run on virtual threads, with at most {@code ioParallelism} files and
+     * 256MB of file data in flight.
+     *
+     * @param plan          the rename plan
+     * @param target        the target directory, created if missing
+     * @param verify        true to compare the SHA-256 of every copy with its source
+     * @param dryRun        true to only print what would be done
+     * @param ioParallelism maximum number of files in flight
+     * @throws IllegalStateException if a target name is already taken in the target directory
+     * @throws IOException           if a file can't be placed
+     */
+    public void place(RenamePlan plan, Path target, boolean verify, boolean dryRun, int ioParallelism)
+            throws IOException {
+        if (Files.exists(target) && !Files.isDirectory(target)) {
+            throw new IllegalArgumentException("Invalid target directory: " + target);
+        }
+        if (Files.isDirectory(target) && Files.isSameFile(target, plan.dir())) {
+            throw new IllegalArgumentException("--target must be another directory than --dir");
+        }
+        checkConflicts(plan, target);
+
+        boolean link = sameFileStore(plan.dir(), target);
+        if (dryRun) {
+            System.out.printf("\nDry run: %d file would be %s into %s%n", plan.size(), link ? "linked" : "copied", target);
+            return;
+        }
+        Files.createDirectories(target);
+
+        var budget = new Semaphore(IN_FLIGHT_BUDGET);
+        var positions = IntStream.range(0, plan.size()).boxed().toList();
+        try (var phase = RunStats.INSTANCE.phase("transfer", plan.dir())) {
+            var linked = ParallelIo.INSTANCE.map(positions, ioParallelism,
+                position -> place(plan.source(position), target.resolve(plan.targetName(position)),
+                    link, verify, budget));
+            phase.files(plan.size());
+            long links = linked.stream().filter(Boolean::booleanValue).count();
+            System.out.printf("\n%d file linked, %d copied into %s", links, plan.size() - links, target);
+        }
+    }
+
+    /**
+     * @return true if the file was linked, false if it was copied
+     */
+    private boolean place(Path source, Path destination, boolean link, boolean verify, Semaphore budget)
+            throws IOException {
+        if (link) {
+            long start = System.nanoTime();
+            try {
+                Files.createLink(destination, source);
+                return true;
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                if (Files.exists(destination)) {
+                    throw e; // taken since the check, not a reason to copy
+                }
+                RunStats.INSTANCE.fallback("transferCopyInsteadOfLink", 1);
+            } finally {
+                RunStats.INSTANCE.operation("transferLink", start);
+            }
+        }
+
+        int units = (int) Math.min(IN_FLIGHT_BUDGET, Math.max(1, Files.size(source) / BUDGET_UNIT));
+        try {
+            budget.acquire(units);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the copy budget", e);
+        }
+        try {
+            copy(source, destination, verify);
+            return false;
+        } finally {
+            budget.release(units);
+        }
+    }
+
+    private void copy(Path source, Path destination, boolean verify) throws IOException {
+        long start = System.nanoTime();
+        var part = destination.resolveSibling(destination.getFileName() + PART_SUFFIX);
+        try {
+            try (var in = FileChannel.open(source, StandardOpenOption.READ);
+                 var out = FileChannel.open(part, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                long size = in.size();
+                for (long position = 0; position < size; ) {
+                    long transferred = in.transferTo(position, size - position, out);
+                    if (transferred <= 0) {
+                        throw new IOException("File changed while copying: %s".formatted(source));
+                    }
+                    position += transferred;
+                }
+                out.force(true);
+            }
+            Files.setLastModifiedTime(part, Files.getLastModifiedTime(source));
+            if (verify && !Arrays.equals(DuplicateFinder.INSTANCE.hash(source), DuplicateFinder.INSTANCE.hash(part))) {
+                throw new IOException("Checksum mismatch copying %s".formatted(source));
+            }
+            Files.move(part, destination, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(part);
+            throw e;
+        } finally {
+            RunStats.INSTANCE.operation("transferCopy", start);
+        }
+    }
+
+    private void checkConflicts(RenamePlan plan, Path target) throws IOException {
+        var existing = new HashSet<String>();
+        if (Files.isDirectory(target)) {
+            try (var stream = Files.newDirectoryStream(target)) {
+                for (var entry : stream) {
+                    existing.add(entry.getFileName().toString());
+                }
+            }
+        }
+        var targets = new HashSet<String>(plan.size() * 2);
+        for (int i = 0; i < plan.size(); i++) {
+            var newFileName = plan.targetName(i);
+            if (!targets.add(newFileName)) {
+                throw new IllegalStateException("Duplicate target file name: %s".formatted(newFileName));
+            }
+            if (existing.contains(newFileName)) {
+                throw new IllegalStateException("File %s already exist in the target directory"
+                    .formatted(target.resolve(newFileName)));
+            }
+        }
+    }
+
+    private boolean sameFileStore(Path dir, Path target) throws IOException {
+        var ancestor = target;
+        while (!Files.exists(ancestor)) {
+            ancestor = ancestor.toAbsolutePath().getParent();
+        }
+        return Files.getFileStore(dir).equals(Files.getFileStore(ancestor));
+    }
+}
@@ -0,0 +1,128 @@
+package utility;
+
+import model.ExtensionMatcher;
+import model.Template;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Templates known to the application, loaded once from templates.properties on the class path
+ * and from ~/.bulk-rename/templates.properties (which can add templates or replace them).
+ * Folder patterns, extension matchers and name patterns are compiled while loading, so a
+ * malformed template fails at startup instead of halfway through a run.
+ */
+public enum TemplateRegistry {
+    INSTANCE;
+
+    public static final String RESOURCE = "/templates.properties";
+
+    private final Map<String, Template> templates;
+
+    TemplateRegistry() {
+        var definitions = new TreeMap<String, Map<String, String>>();
+        try (var in = TemplateRegistry.class.getResourceAsStream(RESOURCE)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing %s on the class path".formatted(RESOURCE));
+            }
+            read(in, RESOURCE, definitions);
+            if (Files.isRegularFile(Config.USER_FILE)) {
+                try (var userIn = Files.newInputStream(Config.USER_FILE)) {
+                    read(userIn, Config.USER_FILE.toString(), definitions);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        var compiled = new HashMap<String, Template>();
+        definitions.forEach((name, properties) -> compiled.put(name, compile(name, properties)));
+        templates = Collections.unmodifiableMap(compiled);
+    }
+
+    /**
+     * @param name the template name, case-insensitive
+     * @return the template
+     * @throws IllegalArgumentException if there is no such template
+     */
+    public Template get(String name) {
+        var template = name != null ? templates.get(name.toLowerCase()) : null;
+        if (template == null) {
+            throw new IllegalArgumentException(
+                "Template %s not supported, available: %s".formatted(name, templates.keySet()));
+        }
+        return template;
+    }
+
+    public Map<String, Template> all() {
+        return templates;
+    }
+
+    /**
+     * Groups the properties by template, a template defined again replaces the previous definition.
+     */
+    private static void read(InputStream in, String source, Map<String, Map<String, String>> definitions)
+            throws IOException {
+        var properties = new Properties();
+        properties.load(in);
+        var read = new TreeMap<String, Map<String, String>>();
+        for (var key : properties.stringPropertyNames()) {
+            int dot = key.indexOf('.');
+            if (dot <= 0 || !Config.KEYS.contains(key.substring(dot + 1))) {
+                throw new IllegalArgumentException("Unknown template property %s in %s, expected <template>.<key> with key in %s"
+                    .formatted(key, source, Config.KEYS));
+            }
+            read.computeIfAbsent(key.substring(0, dot).toLowerCase(), name -> new HashMap<>())
+                .put(key.substring(dot + 1), properties.getProperty(key).trim());
+        }
+        definitions.putAll(read);
+    }
+
+    private static Template compile(String name, Map<String, String> properties) {
+        try {
+            var folder = properties.get("folder");
+            var namePattern = properties.get("name-pattern");
+            if (namePattern != null) {
+                NamePattern.compile(namePattern);
+            }
+            var extensions = properties.getOrDefault("extensions", ExtensionMatcher.ANY);
+            int seqLength = Integer.parseInt(properties.getOrDefault("seq-length", "0"));
+            if (seqLength < 0) {
+                throw new IllegalArgumentException("seq-length must be >= 0");
+            }
+            return new Template(
+                name,
+                folder != null ? Pattern.compile(folder, Pattern.CASE_INSENSITIVE) : null,
+                properties.get("folder-hint"),
+                ExtensionMatcher.of(Arrays.stream(extensions.split(",")).map(String::trim).toList()),
+                Integer.parseInt(properties.getOrDefault("seq-start", "1")),
+                seqLength,
+                namePattern,
+                Boolean.parseBoolean(properties.get("prefix-required")),
+                Boolean.parseBoolean(properties.get("confirm")),
+                Boolean.parseBoolean(properties.get("names-ignore-case")));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid template %s: %s".formatted(name, e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Constants used by the constructor: the enum constant is built before the other static fields of the enum.
+     */
+    private static final class Config {
+        static final Path USER_FILE = Path.of(System.getProperty("user.home"), ".bulk-rename", "templates.properties");
+        static final Set<String> KEYS = Set.of("folder", "folder-hint", "extensions", "seq-start", "seq-length",
+            "name-pattern", "prefix-required", "confirm", "names-ignore-case");
+    }
+}
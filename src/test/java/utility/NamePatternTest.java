@@ -0,0 +1,80 @@
+package utility;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.ZoneOffset;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NamePatternTest {
+    @Test
+    void bindRendersEveryToken() {
+        var name = NamePattern.compile("{prefix}_{folder}-{seq:04}{ext}").bind("IMG", 101, ZoneOffset.UTC);
+
+        assertEquals("IMG_101-0042.jpg", name.apply(42, "P1010001.jpg"));
+        assertEquals("IMG_101-12345", name.apply(12345, "README"));
+    }
+
+    @Test
+    void bindRendersTheSortKeyAsADate() {
+        var name = NamePattern.compile("{date:yyyyMMdd}_{seq:02}{ext}").bind(null, NamePattern.NO_FOLDER, ZoneOffset.UTC);
+        var out = new StringBuilder();
+
+        name.appendTo(out, 7, "a.jpg", 86_400_000_000_000L); // one day after the epoch, in nanoseconds
+
+        assertEquals("19700102_07.jpg", out.toString());
+    }
+
+    @Test
+    void sequencedNameMatchesTheGeneratedNames() {
+        var pattern = NamePattern.compile("{prefix}{seq:03}{ext}");
+        var name = pattern.bind("P", NamePattern.NO_FOLDER, ZoneOffset.UTC).apply(7, "x.JPG");
+        var matcher = pattern.sequencedName("P", NamePattern.NO_FOLDER, Pattern.CASE_INSENSITIVE).matcher(name);
+
+        assertTrue(matcher.matches());
+        assertEquals("007", matcher.group(1));
+        assertFalse(pattern.sequencedName("P", NamePattern.NO_FOLDER, 0).matcher("Q007.jpg").matches());
+    }
+
+    @Test
+    void compileRequiresASequence() {
+        assertThrows(IllegalArgumentException.class, () -> NamePattern.compile("{prefix}{ext}"));
+    }
+
+    @Test
+    void compileRejectsMalformedTokens() {
+        assertThrows(IllegalArgumentException.class, () -> NamePattern.compile("{seq"));
+        assertThrows(IllegalArgumentException.class, () -> NamePattern.compile("seq}{seq}"));
+        assertThrows(IllegalArgumentException.class, () -> NamePattern.compile("{seq:abc}"));
+        assertThrows(IllegalArgumentException.class, () -> NamePattern.compile("{size}{seq}"));
+        assertThrows(IllegalArgumentException.class, () -> NamePattern.compile("{date}{seq}"));
+    }
+
+    @Test
+    void compileRejectsPathSeparators() {
+        assertThrows(IllegalArgumentException.class, () -> NamePattern.compile("../{seq}"));
+        assertThrows(IllegalArgumentException.class, () -> NamePattern.compile("a\\{seq}"));
+        assertThrows(IllegalArgumentException.class, () -> NamePattern.compile("a\0{seq}"));
+        assertThrows(IllegalArgumentException.class, () -> NamePattern.compile("{date:yyyy/MM}{seq}"));
+        assertThrows(IllegalArgumentException.class, () -> NamePattern.compile("{date:VV}{seq}"));
+    }
+
+    @Test
+    void bindRejectsAPrefixWithPathSeparators() {
+        var pattern = NamePattern.compile("{prefix}{seq}");
+
+        assertThrows(IllegalArgumentException.class, () -> pattern.bind("a/b", NamePattern.NO_FOLDER, ZoneOffset.UTC));
+    }
+
+    @Test
+    void generatedNamesMustBeASingleElement() {
+        var name = NamePattern.compile("{seq}{ext}").bind(null, NamePattern.NO_FOLDER, ZoneOffset.UTC);
+
+        // a backslash is a valid file name character on Linux, not in the extension of a new name
+        assertThrows(IllegalArgumentException.class, () -> name.apply(1, "a.b\\c"));
+    }
+}
@@ -0,0 +1,100 @@
+package utility;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RenameJournalTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void recoverCompletesARunInterruptedWithATornMarker() throws IOException {
+        interruptSwap(1);
+
+        RenamerUtility.INSTANCE.recover(dir, false);
+
+        assertEquals(Map.of("a.jpg", "b", "b.jpg", "a"), contents());
+        assertFalse(Files.exists(RenameJournal.fileIn(dir)));
+    }
+
+    @Test
+    void recoverRollsBackARunInterruptedWithATornMarker() throws IOException {
+        interruptSwap(1);
+
+        RenamerUtility.INSTANCE.recover(dir, true);
+
+        assertEquals(Map.of("a.jpg", "a", "b.jpg", "b"), contents());
+        assertFalse(Files.exists(RenameJournal.fileIn(dir)));
+    }
+
+    @Test
+    void recoverSkipsMovesDoneAfterTheLastMarker() throws IOException {
+        interruptSwap(2);
+
+        RenamerUtility.INSTANCE.recover(dir, false);
+
+        assertEquals(Map.of("a.jpg", "b", "b.jpg", "a"), contents());
+    }
+
+    @Test
+    void readDropsAJournalTornInItsHeader() throws IOException {
+        try (var out = new DataOutputStream(Files.newOutputStream(RenameJournal.fileIn(dir)))) {
+            out.writeInt(0x42524A4C); // magic
+            out.writeByte(2); // version
+            out.writeShort(0); // half of the move count
+        }
+
+        assertNull(RenameJournal.read(dir));
+        assertFalse(Files.exists(RenameJournal.fileIn(dir)));
+    }
+
+    /**
+     * Starts swapping a.jpg and b.jpg, then stops after the given number of moves as a crash
+     * would, leaving half of a progress marker at the end of the journal.
+     */
+    private void interruptSwap(int movesDone) throws IOException {
+        Files.writeString(dir.resolve("a.jpg"), "a");
+        Files.writeString(dir.resolve("b.jpg"), "b");
+        var moves = RenamerUtility.INSTANCE.planMoves(Map.of(
+            dir.resolve("a.jpg"), dir.resolve("b.jpg"),
+            dir.resolve("b.jpg"), dir.resolve("a.jpg")));
+        assertEquals(3, moves.size());
+
+        var journal = RenameJournal.create(dir, moves);
+        for (int i = 0; i < movesDone; i++) {
+            var move = moves.get(i);
+            journal.beforeMove(move);
+            Files.move(move.source(), move.target());
+            journal.afterMove(move, i + 1);
+        }
+        journal.close();
+        Files.write(RenameJournal.fileIn(dir), new byte[]{'D', 0, 0}, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * @return the content of every file of the directory but the undo log, by name
+     */
+    private Map<String, String> contents() throws IOException {
+        var contents = new HashMap<String, String>();
+        try (var files = Files.list(dir)) {
+            for (var file : (Iterable<Path>) files::iterator) {
+                if (!RenameLog.isLogFile(file.getFileName().toString())) {
+                    contents.put(file.getFileName().toString(), Files.readString(file));
+                }
+            }
+        }
+        return contents;
+    }
+}
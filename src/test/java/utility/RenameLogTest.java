@@ -0,0 +1,113 @@
+package utility;
+
+import model.RenameMove;
+import model.RenamePlan;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RenameLogTest {
+    private static final int HEADER_SIZE = 4 + 1 + 1 + 1; // magic, version, count and deleted count of a short log
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readReturnsThePlanUndoingTheLoggedRun() throws IOException {
+        write("IMG_0001.JPG", "P001.jpg", "IMG_0002.JPG", "P002.jpg", "IMG_0003.JPG", "IMG_0003.JPG");
+
+        var plan = RenameLog.read(RenameLog.fileIn(dir), dir);
+
+        assertEquals(2, plan.size()); // the identity is not logged
+        assertEquals("P001.jpg", plan.sourceName(0));
+        assertEquals("IMG_0001.JPG", plan.targetName(0));
+        assertEquals("P002.jpg", plan.sourceName(1));
+        assertEquals("IMG_0002.JPG", plan.targetName(1));
+    }
+
+    @Test
+    void writeComposesTheMovesThroughTemporaryNames() throws IOException {
+        RenameLog.write(dir, List.of(
+            new RenameMove(dir.resolve("a.jpg"), dir.resolve("x.tmp")),
+            new RenameMove(dir.resolve("b.jpg"), dir.resolve("a.jpg")),
+            new RenameMove(dir.resolve("x.tmp"), dir.resolve("b.jpg"))));
+
+        var plan = RenameLog.read(RenameLog.fileIn(dir), dir);
+
+        assertEquals(2, plan.size());
+        for (int i = 0; i < plan.size(); i++) {
+            assertEquals(plan.sourceName(i).equals("a.jpg") ? "b.jpg" : "a.jpg", plan.targetName(i));
+        }
+    }
+
+    @Test
+    void readRefusesARunThatDeletedFiles() throws IOException {
+        try (var log = RenameLog.create(dir, 0, List.of("copy.jpg"))) {
+            log.commit();
+        }
+
+        var e = assertThrows(IllegalStateException.class, () -> RenameLog.read(RenameLog.fileIn(dir), dir));
+        assertTrue(e.getMessage().contains("copy.jpg"));
+    }
+
+    @Test
+    void readRefusesATruncatedLog() throws IOException {
+        write("a.jpg", "b.jpg", "c.jpg", "d.jpg");
+        var bytes = Files.readAllBytes(RenameLog.fileIn(dir));
+        Files.write(RenameLog.fileIn(dir), Arrays.copyOf(bytes, bytes.length - 5));
+
+        assertThrows(IllegalStateException.class, () -> RenameLog.read(RenameLog.fileIn(dir), dir));
+    }
+
+    @Test
+    void readRefusesALogWithAWrongChecksum() throws IOException {
+        write("a.jpg", "b.jpg", "c.jpg", "d.jpg");
+        var bytes = Files.readAllBytes(RenameLog.fileIn(dir));
+        bytes[HEADER_SIZE + 2] ^= 1; // a byte of the first name
+        Files.write(RenameLog.fileIn(dir), bytes);
+
+        var e = assertThrows(IllegalStateException.class, () -> RenameLog.read(RenameLog.fileIn(dir), dir));
+        assertTrue(e.getMessage().startsWith("Corrupted undo log"));
+    }
+
+    @Test
+    void readRefusesAHugeNameLengthBeforeAllocatingIt() throws IOException {
+        write("a.jpg", "b.jpg");
+        var bytes = Files.readAllBytes(RenameLog.fileIn(dir));
+        // shared prefix 0, suffix length 0x7FFFFFFF as a 5 byte varint, in place of the first name
+        var damaged = new byte[HEADER_SIZE + 6];
+        System.arraycopy(bytes, 0, damaged, 0, HEADER_SIZE);
+        System.arraycopy(new byte[]{0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07}, 0,
+            damaged, HEADER_SIZE, 6);
+        Files.write(RenameLog.fileIn(dir), damaged);
+
+        var e = assertThrows(IllegalStateException.class, () -> RenameLog.read(RenameLog.fileIn(dir), dir));
+        assertTrue(e.getMessage().startsWith("Corrupted undo log"));
+    }
+
+    /**
+     * Writes the log of a run renaming the given files.
+     *
+     * @param names source and target names, alternated
+     */
+    private void write(String... names) throws IOException {
+        var sources = new String[names.length / 2];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = names[2 * i];
+        }
+        var plan = RenamePlan.builder(dir, sources, sources.length);
+        for (int i = 0; i < sources.length; i++) {
+            plan.add(i, i, i, names[2 * i + 1]);
+        }
+        RenameLog.write(plan.build());
+    }
+}
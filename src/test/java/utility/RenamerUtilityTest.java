@@ -0,0 +1,159 @@
+package utility;
+
+import model.DirectorySnapshot;
+import model.RenameMove;
+import model.ScannedFile;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RenamerUtilityTest {
+    private static final Path DIR = Path.of("/photos");
+
+    @Test
+    void planMovesBreaksACycleWithOneTemporaryName() {
+        var moves = RenamerUtility.INSTANCE.planMoves(renames("a", "b", "b", "c", "c", "a"));
+
+        assertEquals(4, moves.size());
+        assertEquals(1, moves.stream().filter(move -> isTemporary(move.target())).count());
+        assertEquals(Map.of("a", "c", "b", "a", "c", "b"), apply(moves, "a", "b", "c"));
+    }
+
+    @Test
+    void planMovesMovesAChainOnceFromItsFreeEnd() {
+        var moves = RenamerUtility.INSTANCE.planMoves(renames("a", "b", "b", "c", "c", "d"));
+
+        assertEquals(List.of(move("c", "d"), move("b", "c"), move("a", "b")), moves);
+        assertEquals(Map.of("b", "a", "c", "b", "d", "c"), apply(moves, "a", "b", "c"));
+    }
+
+    @Test
+    void planMovesDropsFilesAlreadyCarryingTheirName() {
+        var moves = RenamerUtility.INSTANCE.planMoves(renames("a", "a", "b", "c", "d", "d"));
+
+        assertEquals(List.of(move("b", "c")), moves);
+    }
+
+    @Test
+    void planPhasesParksOnlyFilesWhoseTargetIsTaken() {
+        var phases = RenamerUtility.INSTANCE.planPhases(renames("a", "b", "b", "a", "c", "d"));
+
+        assertEquals(2, phases.size());
+        assertEquals(3, phases.get(0).size());
+        assertEquals(2, phases.get(1).size());
+        assertTrue(phases.get(0).contains(move("c", "d")));
+        assertTrue(phases.get(1).stream().allMatch(move -> isTemporary(move.source())));
+        // the moves of a phase are independent: any order gives the same result
+        var expected = Map.of("a", "b", "b", "a", "d", "c");
+        assertEquals(expected, apply(concat(phases.get(0), phases.get(1)), "a", "b", "c"));
+        assertEquals(expected, apply(concat(phases.get(0).reversed(), phases.get(1).reversed()), "a", "b", "c"));
+    }
+
+    @Test
+    void mergeSequenceKeepsTheFilesAlreadyInSequence() {
+        var plan = RenamerUtility.INSTANCE.mergeSequence(
+            snapshot("P01.jpg", "new.jpg", "P02.jpg"), new long[]{10, 30, 20}, 1, RenamerUtilityTest::sequenceName,
+            RenamerUtilityTest::sequenceOf);
+
+        assertEquals("new.jpg", plan.sourceName(2));
+        assertEquals("P03.jpg", plan.targetName(2));
+        assertEquals(1, plan.renamedCount());
+        assertEquals(2, RenamerUtility.INSTANCE.reportSequence(plan, RenamerUtilityTest::sequenceOf));
+    }
+
+    @Test
+    void mergeSequenceShiftsTheFilesAfterAnOlderNewFile() {
+        var plan = RenamerUtility.INSTANCE.mergeSequence(
+            snapshot("P01.jpg", "P02.jpg", "new.jpg"), new long[]{10, 20, 5}, 1, RenamerUtilityTest::sequenceName,
+            RenamerUtilityTest::sequenceOf);
+
+        assertEquals("new.jpg", plan.sourceName(0));
+        assertEquals("P01.jpg", plan.targetName(0));
+        assertEquals("P02.jpg", plan.targetName(1));
+        assertEquals("P03.jpg", plan.targetName(2));
+        assertEquals(3, plan.renamedCount());
+    }
+
+    @Test
+    void mergeSequenceOrdersTheFilesInSequenceByTheirNumber() {
+        // keys disagree with the numbers, ex. dates changed by a copy: the numbers win
+        var plan = RenamerUtility.INSTANCE.mergeSequence(
+            snapshot("P02.jpg", "P01.jpg"), new long[]{10, 20}, 1, RenamerUtilityTest::sequenceName,
+            RenamerUtilityTest::sequenceOf);
+
+        assertEquals(0, plan.renamedCount());
+    }
+
+    private static DirectorySnapshot snapshot(String... names) {
+        var files = new ArrayList<ScannedFile>();
+        var entries = new HashMap<String, ScannedFile>();
+        for (var name : names) {
+            var file = new ScannedFile(DIR.resolve(name), ScannedFile.Type.REGULAR_FILE, 0, 0, 0, null);
+            files.add(file);
+            entries.put(name, file);
+        }
+        return new DirectorySnapshot(DIR, files, entries);
+    }
+
+    private static String sequenceName(int sequenceNumber, String sourceName) {
+        return "P%02d.jpg".formatted(sequenceNumber);
+    }
+
+    private static int sequenceOf(String name) {
+        return name.matches("P\\d{2}\\.jpg") ? Integer.parseInt(name.substring(1, 3)) : -1;
+    }
+
+    /**
+     * @param names source and target names, alternated
+     */
+    private static Map<Path, Path> renames(String... names) {
+        var renames = new LinkedHashMap<Path, Path>();
+        for (int i = 0; i < names.length; i += 2) {
+            renames.put(DIR.resolve(names[i]), DIR.resolve(names[i + 1]));
+        }
+        return renames;
+    }
+
+    private static RenameMove move(String source, String target) {
+        return new RenameMove(DIR.resolve(source), DIR.resolve(target));
+    }
+
+    private static boolean isTemporary(Path path) {
+        return path.getFileName().toString().endsWith(".tmp");
+    }
+
+    private static List<RenameMove> concat(List<RenameMove> first, List<RenameMove> second) {
+        var moves = new ArrayList<>(first);
+        moves.addAll(second);
+        return moves;
+    }
+
+    /**
+     * Replays the moves on the given files, failing if a move overwrites a file.
+     *
+     * @return the content (original name) of every file, by name
+     */
+    private static Map<String, String> apply(List<RenameMove> moves, String... files) {
+        var contents = new HashMap<String, String>();
+        for (var file : files) {
+            contents.put(file, file);
+        }
+        for (var move : moves) {
+            var source = move.source().getFileName().toString();
+            var target = move.target().getFileName().toString();
+            assertTrue(contents.containsKey(source), "missing source " + source);
+            assertFalse(contents.containsKey(target), "overwritten " + target);
+            contents.put(target, contents.remove(source));
+        }
+        return contents;
+    }
+}